@@ -0,0 +1,94 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operacions de l'editor de dibuix ({@link OpenCVDrawingApp2}): afegir una
+ * forma i desfer-la, seleccionar amb el ratolí i recompondre la capa
+ * d'anotacions sobre la imatge.
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @Param({"50", "500"})
+    int annotations;
+
+    AnnotationLayer layer;
+    Annotation shape;
+    Mat canvas;
+    Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkImages.loadOpenCV();
+        random = new Random(42);
+        layer = new AnnotationLayer(WIDTH, HEIGHT);
+        Annotation.Type[] types = Annotation.Type.values();
+        for (int i = 0; i < annotations; i++) {
+            double x = random.nextInt(WIDTH - 200);
+            double y = random.nextInt(HEIGHT - 200);
+            layer.add(new Annotation(types[i % types.length],
+                    Arrays.asList(new Point(x, y), new Point(x + 20 + random.nextInt(150), y + 20 + random.nextInt(150))),
+                    new Scalar(0, 0, 255), 3));
+        }
+        shape = new Annotation(Annotation.Type.RECTANGLE,
+                Arrays.asList(new Point(100, 100), new Point(300, 250)), new Scalar(255, 0, 0), 2);
+        canvas = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        canvas.release();
+    }
+
+    /** Afegir una forma i desfer-la. */
+    @Benchmark
+    public boolean addAndUndo() {
+        layer.add(shape);
+        return layer.undo();
+    }
+
+    /** Buscar la forma sota el punter. */
+    @Benchmark
+    public Annotation hitTest() {
+        return layer.hitTest(random.nextInt(WIDTH), random.nextInt(HEIGHT), 5);
+    }
+
+    /** Recompondre totes les formes sobre la imatge. */
+    @Benchmark
+    public Mat rasterize() {
+        canvas.setTo(new Scalar(255, 255, 255));
+        layer.rasterize(canvas);
+        return canvas;
+    }
+}
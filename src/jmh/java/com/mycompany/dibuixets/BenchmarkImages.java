@@ -0,0 +1,50 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.NativeLoader;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Utilitats compartides per les proves de rendiment: carrega OpenCV una sola
+ * vegada i prepara les imatges de mostra de la carpeta {@code images/} a la
+ * resolució demanada.
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+final class BenchmarkImages {
+
+    private static boolean loaded = false;
+
+    private BenchmarkImages() {
+    }
+
+    static synchronized void loadOpenCV() {
+        if (!loaded) {
+            NativeLoader.load();
+            loaded = true;
+        }
+    }
+
+    /**
+     * Llegeix una imatge de mostra i l'escala a l'alçada indicada.
+     *
+     * @param name Nom del fitxer dins de {@code images/}.
+     * @param height Alçada desitjada.
+     * @return La imatge en BGR.
+     */
+    static Mat load(String name, int height) {
+        loadOpenCV();
+        Mat source = Imgcodecs.imread("images/" + name);
+        if (source.empty()) {
+            throw new IllegalStateException("No s'ha trobat la imatge de mostra images/" + name);
+        }
+        Mat scaled = new Mat();
+        double scale = (double) height / source.rows();
+        Imgproc.resize(source, scaled, new Size(Math.round(source.cols() * scale), height), 0, 0,
+                scale < 1 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+        source.release();
+        return scaled;
+    }
+}
@@ -0,0 +1,36 @@
+package com.mycompany.dibuixets;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Punt d'entrada de les proves de rendiment.
+ * <p>
+ * Executa les proves de JMH sempre amb el perfilador de memòria
+ * ({@code -prof gc}), de manera que a més de la latència es mostra la taxa
+ * d'assignació per operació. Accepta les mateixes opcions que JMH, per
+ * exemple un filtre amb el nom de la prova:
+ * </p>
+ * <pre>
+ * mvn -P benchmarks package
+ * java -jar target/benchmarks.jar Conversion -p height=1080
+ * </pre>
+ * S'ha d'executar des de l'arrel del projecte perquè es trobin {@code images/}
+ * i {@code data/}.
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(cli)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
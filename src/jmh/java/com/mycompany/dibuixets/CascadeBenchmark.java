@@ -0,0 +1,68 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detecció de cares amb el classificador en cascada a diverses resolucions.
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CascadeBenchmark {
+
+    @Param({"240", "480", "720", "1080"})
+    int height;
+
+    Mat frame;
+    CascadeClassifier classifier;
+    CascadeFaceDetector realTime;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = BenchmarkImages.load("faces.png", height);
+        classifier = new CascadeClassifier(FaceDetector.CASCADE_PATH);
+        // Sense reduir la imatge i sempre amb cerca completa, per mesurar la cascada sola
+        realTime = new CascadeFaceDetector(FaceDetector.CASCADE_PATH, 0, 0.3, 3.0);
+        realTime.setFullScanInterval(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+        realTime.release();
+    }
+
+    /** detectMultiScale amb mida mínima del 20% de l'alçada ({@link FaceDetector}). */
+    @Benchmark
+    public Rect[] detectMultiScale() {
+        return FaceDetector.detectFaces(classifier, frame);
+    }
+
+    /** detectMultiScale amb el rang de mides per distància ({@link CascadeFaceDetector}). */
+    @Benchmark
+    public Rect[] distanceRange() {
+        return realTime.detect(frame);
+    }
+}
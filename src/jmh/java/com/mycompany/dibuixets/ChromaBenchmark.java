@@ -0,0 +1,73 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Efecte de croma sobre un fotograma amb fons verd.
+ * <p>
+ * L'efecte modifica el fotograma, de manera que cada iteració parteix d'una
+ * còpia de l'original; {@link #copyOnly()} mesura aquest cost per poder-lo
+ * descomptar.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChromaBenchmark {
+
+    private static final Scalar LOWER_GREEN = new Scalar(35, 50, 50);
+    private static final Scalar UPPER_GREEN = new Scalar(85, 255, 255);
+
+    @Param({"480", "1080"})
+    int height;
+
+    Mat source;
+    Mat background;
+    Mat frame = new Mat();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = BenchmarkImages.load("croma.png", height);
+        background = BenchmarkImages.load("moon.jpg", height);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        source.release();
+        background.release();
+        frame.release();
+    }
+
+    @Benchmark
+    public Mat chromaKey() {
+        source.copyTo(frame);
+        Croma.applyChromaKeyEffect(frame, background, LOWER_GREEN, UPPER_GREEN);
+        return frame;
+    }
+
+    @Benchmark
+    public Mat copyOnly() {
+        source.copyTo(frame);
+        return frame;
+    }
+}
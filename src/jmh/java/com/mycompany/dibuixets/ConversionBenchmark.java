@@ -0,0 +1,85 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversió de {@code Mat} a {@code BufferedImage} amb les variants de cada
+ * panell, que s'executen a cada fotograma.
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"480", "1080"})
+    int height;
+
+    Mat frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = BenchmarkImages.load("faces.png", height);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+    }
+
+    /** Conversió amb cvtColor a RGB (editor de dibuix). */
+    @Benchmark
+    public BufferedImage drawingApp() {
+        return OpenCVDrawingApp2.matToBufferedImage(frame);
+    }
+
+    /** Còpia directa dels bytes BGR (detecció de cares). */
+    @Benchmark
+    public BufferedImage faceDetection() {
+        return RealTimeFaceDetection.matToBufferedImage(frame);
+    }
+
+    /** Conversió amb cvtColor a RGB (seguiment d'objectes). */
+    @Benchmark
+    public BufferedImage objectTracking() {
+        return ObjectTracking.Mat2BufferedImage(frame);
+    }
+
+    /** Conversió amb cvtColor a RGB (croma). */
+    @Benchmark
+    public BufferedImage croma() {
+        return Croma.matToBufferedImage(frame);
+    }
+
+    /** Còpia directa amb suport per a escala de grisos (OCR). */
+    @Benchmark
+    public BufferedImage textRecognition() {
+        return TextRecognition.matToBufferedImage(frame);
+    }
+
+    /** Codificació JPEG i lectura amb ImageIO (captura de la webcam). */
+    @Benchmark
+    public BufferedImage webcamJpeg() {
+        return WebcamCaptureApp.matToBufferedImage(frame);
+    }
+}
@@ -0,0 +1,70 @@
+package com.mycompany.dibuixets;
+
+import net.sourceforge.tess4j.ITesseract;
+import net.sourceforge.tess4j.TesseractException;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preprocessat i reconeixement de text de {@link TextRecognition}.
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class OcrBenchmark {
+
+    Mat frame;
+    Mat binary = new Mat();
+    ITesseract engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = BenchmarkImages.load("text.png", 480);
+        engine = TextRecognition.createEngine();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+        binary.release();
+    }
+
+    /** Escala de grisos i llindar. */
+    @Benchmark
+    public Mat binarize() {
+        TextRecognition.binarize(frame, binary);
+        return binary;
+    }
+
+    /** Preprocessat, conversió i OCR amb un motor reutilitzat. */
+    @Benchmark
+    public String doOcr() throws TesseractException {
+        TextRecognition.binarize(frame, binary);
+        return engine.doOCR(TextRecognition.matToBufferedImage(binary));
+    }
+
+    /** Com {@link #doOcr()}, però creant el motor a cada crida com fa el panell. */
+    @Benchmark
+    public String doOcrNewEngine() throws TesseractException {
+        TextRecognition.binarize(frame, binary);
+        return TextRecognition.createEngine().doOCR(TextRecognition.matToBufferedImage(binary));
+    }
+}
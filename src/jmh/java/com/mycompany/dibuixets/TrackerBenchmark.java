@@ -0,0 +1,76 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.core.CvType;
+import org.opencv.tracking.TrackerKCF;
+import org.opencv.video.Tracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Actualització del tracker KCF de {@link ObjectTracking}.
+ * <p>
+ * S'alternen dos fotogrames desplaçats uns quants píxels perquè el tracker
+ * hagi de seguir un moviment real.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackerBenchmark {
+
+    @Param({"480", "1080"})
+    int height;
+
+    Mat[] frames = new Mat[2];
+    Tracker tracker;
+    Rect roi;
+    int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frames[0] = BenchmarkImages.load("tracking.png", height);
+        frames[1] = new Mat();
+        Mat shift = new Mat(2, 3, CvType.CV_64F);
+        shift.put(0, 0, 1, 0, 4, 0, 1, 2);
+        Imgproc.warpAffine(frames[0], frames[1], shift, frames[0].size());
+        shift.release();
+
+        int w = frames[0].cols() / 5;
+        int h = frames[0].rows() / 5;
+        roi = new Rect((frames[0].cols() - w) / 2, (frames[0].rows() - h) / 2, w, h);
+        tracker = TrackerKCF.create();
+        tracker.init(frames[0], roi);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frames[0].release();
+        frames[1].release();
+    }
+
+    @Benchmark
+    public boolean update() {
+        next ^= 1;
+        return tracker.update(frames[next], roi);
+    }
+}
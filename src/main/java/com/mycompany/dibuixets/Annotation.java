@@ -0,0 +1,223 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Anotació vectorial dibuixada sobre una imatge del Paint.
+ * <p>
+ * En lloc de cremar les formes directament als píxels, cada línia, cercle,
+ * rectangle, fletxa o traç lliure es guarda com un objecte amb els seus punts,
+ * color i gruix. Així es pot seleccionar, moure, esborrar i tornar a dibuixar a
+ * qualsevol resolució.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class Annotation {
+
+    /**
+     * Tipus de forma de l'anotació.
+     */
+    public enum Type {
+        LINE, CIRCLE, RECTANGLE, ARROW, FREEHAND
+    }
+
+    private final Type type;
+    private final List<Point> points; // Dos punts per a les formes; tots els punts per al traç lliure
+    private final Scalar color;
+    private final int thickness;
+    private Rect bounds; // Rectangle envolupant en memòria cau
+
+    /**
+     * Crea una anotació nova.
+     *
+     * @param type Tipus de forma.
+     * @param points Punts de la forma (inici i final, o tot el traç).
+     * @param color Color tal com el fa servir OpenCV per dibuixar.
+     * @param thickness Gruix de la línia.
+     */
+    public Annotation(Type type, List<Point> points, Scalar color, int thickness) {
+        this.type = type;
+        this.points = new ArrayList<>(points.size());
+        for (Point p : points) {
+            this.points.add(p.clone());
+        }
+        this.color = color;
+        this.thickness = thickness;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public List<Point> getPoints() {
+        return Collections.unmodifiableList(points);
+    }
+
+    public Scalar getColor() {
+        return color;
+    }
+
+    public int getThickness() {
+        return thickness;
+    }
+
+    /**
+     * Desplaça l'anotació.
+     *
+     * @param dx Desplaçament horitzontal.
+     * @param dy Desplaçament vertical.
+     */
+    public void translate(double dx, double dy) {
+        for (Point p : points) {
+            p.x += dx;
+            p.y += dy;
+        }
+        bounds = null;
+    }
+
+    /**
+     * Retorna el rectangle que envolta l'anotació, incloent-hi el gruix.
+     *
+     * @return El rectangle envolupant.
+     */
+    public Rect getBounds() {
+        if (bounds == null) {
+            double minX, minY, maxX, maxY;
+            if (type == Type.CIRCLE) {
+                Point c = points.get(0);
+                double r = radius();
+                minX = c.x - r;
+                minY = c.y - r;
+                maxX = c.x + r;
+                maxY = c.y + r;
+            } else {
+                minX = minY = Double.MAX_VALUE;
+                maxX = maxY = -Double.MAX_VALUE;
+                for (Point p : points) {
+                    minX = Math.min(minX, p.x);
+                    minY = Math.min(minY, p.y);
+                    maxX = Math.max(maxX, p.x);
+                    maxY = Math.max(maxY, p.y);
+                }
+            }
+            // La punta de la fletxa pot sortir una mica del segment
+            int margin = thickness + (type == Type.ARROW ? (int) (0.1 * length()) : 0) + 1;
+            bounds = new Rect((int) Math.floor(minX) - margin, (int) Math.floor(minY) - margin,
+                    (int) Math.ceil(maxX - minX) + 2 * margin + 1, (int) Math.ceil(maxY - minY) + 2 * margin + 1);
+        }
+        return bounds;
+    }
+
+    /**
+     * Comprova si un punt toca el contorn de l'anotació.
+     *
+     * @param x Coordenada x.
+     * @param y Coordenada y.
+     * @param tolerance Distància màxima (a més del gruix) per considerar que la toca.
+     * @return {@code true} si el punt és prou a prop de la forma.
+     */
+    public boolean hitTest(double x, double y, double tolerance) {
+        Rect r = getBounds();
+        if (x < r.x - tolerance || y < r.y - tolerance
+                || x > r.x + r.width + tolerance || y > r.y + r.height + tolerance) {
+            return false;
+        }
+        double limit = tolerance + thickness / 2.0;
+        Point a = points.get(0);
+        Point b = points.get(points.size() - 1);
+        switch (type) {
+            case CIRCLE:
+                return Math.abs(Math.hypot(x - a.x, y - a.y) - radius()) <= limit;
+            case RECTANGLE:
+                Point c = new Point(a.x, b.y);
+                Point d = new Point(b.x, a.y);
+                return segmentDistance(x, y, a, c) <= limit || segmentDistance(x, y, c, b) <= limit
+                        || segmentDistance(x, y, b, d) <= limit || segmentDistance(x, y, d, a) <= limit;
+            case FREEHAND:
+                if (points.size() == 1) {
+                    return Math.hypot(x - a.x, y - a.y) <= limit;
+                }
+                for (int i = 1; i < points.size(); i++) {
+                    if (segmentDistance(x, y, points.get(i - 1), points.get(i)) <= limit) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return segmentDistance(x, y, a, b) <= limit;
+        }
+    }
+
+    /**
+     * Dibuixa l'anotació sobre una imatge.
+     *
+     * @param target Imatge de destí.
+     * @param scale Factor d'escala entre les coordenades de l'anotació i la imatge.
+     */
+    public void draw(Mat target, double scale) {
+        int t = Math.max(1, (int) Math.round(thickness * scale));
+        Point a = scaled(points.get(0), scale);
+        Point b = scaled(points.get(points.size() - 1), scale);
+        switch (type) {
+            case CIRCLE:
+                Imgproc.circle(target, a, (int) Math.round(radius() * scale), color, t);
+                break;
+            case RECTANGLE:
+                Imgproc.rectangle(target, a, b, color, t);
+                break;
+            case ARROW:
+                Imgproc.arrowedLine(target, a, b, color, t);
+                break;
+            case LINE:
+                Imgproc.line(target, a, b, color, t);
+                break;
+            case FREEHAND:
+                if (points.size() == 1) {
+                    Imgproc.circle(target, a, Math.max(1, t / 2), color, -1, Imgproc.LINE_AA);
+                    break;
+                }
+                List<Point> scaledPoints = new ArrayList<>(points.size());
+                for (Point p : points) {
+                    scaledPoints.add(scaled(p, scale));
+                }
+                MatOfPoint polyline = new MatOfPoint();
+                polyline.fromList(scaledPoints);
+                Imgproc.polylines(target, Collections.singletonList(polyline), false, color, t, Imgproc.LINE_AA);
+                polyline.release();
+                break;
+        }
+    }
+
+    private double radius() {
+        return length();
+    }
+
+    private double length() {
+        Point a = points.get(0);
+        Point b = points.get(points.size() - 1);
+        return Math.hypot(b.x - a.x, b.y - a.y);
+    }
+
+    private static Point scaled(Point p, double scale) {
+        return scale == 1.0 ? p : new Point(p.x * scale, p.y * scale);
+    }
+
+    private static double segmentDistance(double x, double y, Point a, Point b) {
+        double dx = b.x - a.x;
+        double dy = b.y - a.y;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : ((x - a.x) * dx + (y - a.y) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x - (a.x + t * dx), y - (a.y + t * dy));
+    }
+}
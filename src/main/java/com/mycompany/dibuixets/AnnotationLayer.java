@@ -0,0 +1,426 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Capa d'anotacions vectorials del Paint.
+ * <p>
+ * Guarda les anotacions en ordre de dibuix i les indexa en una graella
+ * uniforme per poder trobar ràpidament quina anotació hi ha sota el ratolí. El
+ * desfer i refer es fan amb operacions (afegir, eliminar, moure) en lloc de
+ * còpies de la imatge, i la capa es pot desar en un fitxer binari al costat de
+ * la imatge i tornar a dibuixar a qualsevol resolució.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class AnnotationLayer {
+
+    /** Extensió del fitxer d'anotacions que es desa al costat de la imatge. */
+    public static final String SIDECAR_EXTENSION = ".ann";
+
+    private static final int MAGIC = 0x414E4E31; // "ANN1"
+    private static final int HEADER_BYTES = 16; // Marca, amplada, alçada i nombre d'anotacions
+    private static final int ANNOTATION_BYTES = 10; // Tipus, color, gruix i nombre de punts
+    private static final int POINT_BYTES = 8;
+    private static final int MAX_EXTENT = 4; // Coordenades i gruix admesos en llegir, en mides de la imatge
+    private static final int CELL_SIZE = 64; // Mida de les cel·les de l'índex espacial
+
+    private final List<Annotation> annotations = new ArrayList<>(); // Ordre de dibuix
+    private final Map<Long, List<Annotation>> grid = new HashMap<>(); // Índex espacial
+    private final Stack<Operation> undoStack = new Stack<>();
+    private final Stack<Operation> redoStack = new Stack<>();
+    private final int width;
+    private final int height;
+
+    /**
+     * Operació reversible sobre la capa.
+     */
+    private interface Operation {
+        void apply();
+        void revert();
+    }
+
+    /**
+     * Crea una capa buida per a una imatge de la mida indicada.
+     *
+     * @param width Amplada de la imatge.
+     * @param height Alçada de la imatge.
+     */
+    public AnnotationLayer(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public List<Annotation> getAnnotations() {
+        return new ArrayList<>(annotations);
+    }
+
+    public boolean isEmpty() {
+        return annotations.isEmpty();
+    }
+
+    /**
+     * Afegeix una anotació (es pot desfer).
+     *
+     * @param annotation L'anotació a afegir.
+     */
+    public void add(Annotation annotation) {
+        perform(new Operation() {
+            @Override
+            public void apply() {
+                insert(annotations.size(), annotation);
+            }
+
+            @Override
+            public void revert() {
+                delete(annotation);
+            }
+        });
+    }
+
+    /**
+     * Elimina una anotació (es pot desfer).
+     *
+     * @param annotation L'anotació a eliminar.
+     */
+    public void remove(Annotation annotation) {
+        int index = annotations.indexOf(annotation);
+        if (index < 0) {
+            return;
+        }
+        perform(new Operation() {
+            @Override
+            public void apply() {
+                delete(annotation);
+            }
+
+            @Override
+            public void revert() {
+                insert(index, annotation);
+            }
+        });
+    }
+
+    /**
+     * Registra el desplaçament d'una anotació que ja s'ha mogut de manera
+     * interactiva, perquè es pugui desfer.
+     *
+     * @param annotation L'anotació moguda.
+     * @param dx Desplaçament horitzontal total.
+     * @param dy Desplaçament vertical total.
+     */
+    public void moved(Annotation annotation, double dx, double dy) {
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+        // L'anotació ja és a la posició final: només cal tornar-la a indexar
+        annotation.translate(-dx, -dy);
+        unindex(annotation);
+        annotation.translate(dx, dy);
+        index(annotation);
+        undoStack.push(new Operation() {
+            @Override
+            public void apply() {
+                move(annotation, dx, dy);
+            }
+
+            @Override
+            public void revert() {
+                move(annotation, -dx, -dy);
+            }
+        });
+        redoStack.clear();
+    }
+
+    /**
+     * Elimina totes les anotacions (es pot desfer).
+     */
+    public void clear() {
+        if (annotations.isEmpty()) {
+            return;
+        }
+        List<Annotation> removed = new ArrayList<>(annotations);
+        perform(new Operation() {
+            @Override
+            public void apply() {
+                annotations.clear();
+                grid.clear();
+            }
+
+            @Override
+            public void revert() {
+                for (Annotation annotation : removed) {
+                    insert(annotations.size(), annotation);
+                }
+            }
+        });
+    }
+
+    /**
+     * Desfà l'última operació.
+     *
+     * @return {@code true} si s'ha desfet alguna cosa.
+     */
+    public boolean undo() {
+        if (undoStack.isEmpty()) {
+            return false;
+        }
+        Operation operation = undoStack.pop();
+        operation.revert();
+        redoStack.push(operation);
+        return true;
+    }
+
+    /**
+     * Refà l'última operació desfeta.
+     *
+     * @return {@code true} si s'ha refet alguna cosa.
+     */
+    public boolean redo() {
+        if (redoStack.isEmpty()) {
+            return false;
+        }
+        Operation operation = redoStack.pop();
+        operation.apply();
+        undoStack.push(operation);
+        return true;
+    }
+
+    /**
+     * Busca l'anotació visible (la de més amunt) sota un punt.
+     *
+     * @param x Coordenada x.
+     * @param y Coordenada y.
+     * @param tolerance Tolerància en píxels.
+     * @return L'anotació trobada o {@code null}.
+     */
+    public Annotation hitTest(double x, double y, double tolerance) {
+        Set<Annotation> candidates = new LinkedHashSet<>();
+        int t = (int) Math.ceil(tolerance);
+        for (long key : cellKeys(new Rect((int) x - t, (int) y - t, 2 * t + 1, 2 * t + 1))) {
+            List<Annotation> cell = grid.get(key);
+            if (cell != null) {
+                candidates.addAll(cell);
+            }
+        }
+        Annotation hit = null;
+        int hitIndex = -1;
+        for (Annotation candidate : candidates) {
+            if (candidate.hitTest(x, y, tolerance)) {
+                int index = annotations.indexOf(candidate);
+                if (index > hitIndex) {
+                    hit = candidate;
+                    hitIndex = index;
+                }
+            }
+        }
+        return hit;
+    }
+
+    /**
+     * Dibuixa totes les anotacions sobre una imatge. Si la imatge té una mida
+     * diferent de la capa, les anotacions s'escalen.
+     *
+     * @param target Imatge de destí.
+     */
+    public void rasterize(Mat target) {
+        double scale = width > 0 ? (double) target.cols() / width : 1.0;
+        for (Annotation annotation : annotations) {
+            annotation.draw(target, scale);
+        }
+    }
+
+    /**
+     * Desa la capa en un fitxer binari compacte.
+     *
+     * @param file Fitxer de destí.
+     * @throws IOException Si hi ha un error d'escriptura.
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(annotations.size());
+            for (Annotation annotation : annotations) {
+                double[] c = annotation.getColor().val;
+                out.writeByte(annotation.getType().ordinal());
+                out.writeByte((int) c[0]);
+                out.writeByte((int) c[1]);
+                out.writeByte((int) c[2]);
+                out.writeShort(annotation.getThickness());
+                List<Point> points = annotation.getPoints();
+                out.writeInt(points.size());
+                for (Point p : points) {
+                    out.writeFloat((float) p.x);
+                    out.writeFloat((float) p.y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Llegeix una capa desada amb {@link #write(File)} i l'adapta a la mida de
+     * la imatge on es mostrarà.
+     *
+     * @param file Fitxer d'anotacions.
+     * @param targetWidth Amplada de la imatge actual.
+     * @param targetHeight Alçada de la imatge actual.
+     * @return La capa llegida.
+     * @throws IOException Si el fitxer no és vàlid o no es pot llegir.
+     */
+    public static AnnotationLayer read(File file, int targetWidth, int targetHeight) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Fitxer d'anotacions no vàlid: " + file);
+            }
+            int storedWidth = in.readInt();
+            in.readInt(); // Alçada original: l'escala es calcula amb l'amplada
+            double scale = storedWidth > 0 ? (double) targetWidth / storedWidth : 1.0;
+            AnnotationLayer layer = new AnnotationLayer(targetWidth, targetHeight);
+            int count = in.readInt();
+            // Els comptadors es comproven amb la mida del fitxer perquè un fitxer malmès no reservi memòria de més
+            long remaining = file.length() - HEADER_BYTES;
+            if (count < 0 || (long) count * ANNOTATION_BYTES > remaining) {
+                throw new IOException("Nombre d'anotacions no vàlid a " + file + ": " + count);
+            }
+            // Un fitxer malmès pot tenir coordenades absurdes: es rebutgen abans d'indexar-les
+            double limit = MAX_EXTENT * (double) Math.max(targetWidth, targetHeight);
+            Annotation.Type[] types = Annotation.Type.values();
+            for (int i = 0; i < count; i++) {
+                int ordinal = in.readUnsignedByte();
+                if (ordinal >= types.length) {
+                    throw new IOException("Tipus d'anotació desconegut a " + file + ": " + ordinal);
+                }
+                Annotation.Type type = types[ordinal];
+                Scalar color = new Scalar(in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedByte());
+                double storedThickness = in.readUnsignedShort() * scale;
+                if (!(storedThickness <= limit)) {
+                    throw new IOException("Gruix no vàlid a " + file + ": " + storedThickness);
+                }
+                int thickness = Math.max(1, (int) Math.round(storedThickness));
+                int n = in.readInt();
+                remaining -= ANNOTATION_BYTES;
+                if (n < 0 || (long) n * POINT_BYTES > remaining) {
+                    throw new IOException("Nombre de punts no vàlid a " + file + ": " + n);
+                }
+                remaining -= (long) n * POINT_BYTES;
+                List<Point> points = new ArrayList<>(n);
+                for (int j = 0; j < n; j++) {
+                    double x = in.readFloat() * scale;
+                    double y = in.readFloat() * scale;
+                    // La comparació negada també rebutja NaN
+                    if (!(Math.abs(x) <= limit && Math.abs(y) <= limit)) {
+                        throw new IOException("Coordenada no vàlida a " + file + ": " + x + ", " + y);
+                    }
+                    points.add(new Point(x, y));
+                }
+                layer.insert(layer.annotations.size(), new Annotation(type, points, color, thickness));
+            }
+            return layer;
+        }
+    }
+
+    /**
+     * Retorna el fitxer d'anotacions associat a una imatge.
+     *
+     * @param imageFile Fitxer de la imatge.
+     * @return El fitxer d'anotacions (pot no existir).
+     */
+    public static File sidecarFor(File imageFile) {
+        return new File(imageFile.getAbsolutePath() + SIDECAR_EXTENSION);
+    }
+
+    private void perform(Operation operation) {
+        operation.apply();
+        undoStack.push(operation);
+        redoStack.clear();
+    }
+
+    private void insert(int index, Annotation annotation) {
+        annotations.add(index, annotation);
+        index(annotation);
+    }
+
+    private void delete(Annotation annotation) {
+        annotations.remove(annotation);
+        unindex(annotation);
+    }
+
+    private void move(Annotation annotation, double dx, double dy) {
+        unindex(annotation);
+        annotation.translate(dx, dy);
+        index(annotation);
+    }
+
+    private void index(Annotation annotation) {
+        for (long key : cellKeys(annotation.getBounds())) {
+            grid.computeIfAbsent(key, k -> new ArrayList<>()).add(annotation);
+        }
+    }
+
+    private void unindex(Annotation annotation) {
+        for (long key : cellKeys(annotation.getBounds())) {
+            List<Annotation> cell = grid.get(key);
+            if (cell != null) {
+                cell.remove(annotation);
+                if (cell.isEmpty()) {
+                    grid.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cel·les de l'índex que toca un rectangle. Es limiten a la graella de la
+     * imatge: el que queda fora es desa a les cel·les de la vora, de manera que
+     * una anotació enorme no genera milions de cel·les.
+     */
+    private List<Long> cellKeys(Rect r) {
+        int maxX = Math.max(0, (width - 1) / CELL_SIZE);
+        int maxY = Math.max(0, (height - 1) / CELL_SIZE);
+        int x0 = clampCell(Math.floorDiv((long) r.x, CELL_SIZE), maxX);
+        int y0 = clampCell(Math.floorDiv((long) r.y, CELL_SIZE), maxY);
+        int x1 = clampCell(Math.floorDiv((long) r.x + r.width, CELL_SIZE), maxX);
+        int y1 = clampCell(Math.floorDiv((long) r.y + r.height, CELL_SIZE), maxY);
+        List<Long> keys = new ArrayList<>((x1 - x0 + 1) * (y1 - y0 + 1));
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                keys.add(((long) cx << 32) | (cy & 0xFFFFFFFFL));
+            }
+        }
+        return keys;
+    }
+
+    private static int clampCell(long cell, int max) {
+        return (int) Math.max(0, Math.min(max, cell));
+    }
+}
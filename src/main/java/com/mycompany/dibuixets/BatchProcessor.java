@@ -0,0 +1,245 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.NativeLoader;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Processament per lots de les imatges desades a la carpeta {@code images/}.
+ * <p>
+ * Aplica una cadena d'etapes ({@link BatchStage}) a totes les imatges d'un
+ * directori fent servir un {@link ForkJoinPool} amb un nombre limitat de fils.
+ * Cada fil llegeix, processa i escriu una imatge abans de passar a la següent,
+ * de manera que la memòria utilitzada depèn del nombre de fils i no del nombre
+ * d'imatges. En acabar es mostra el rendiment obtingut.
+ * </p>
+ *
+ * <p>
+ * No fa servir Swing, de manera que es pot executar en un servidor:</p>
+ * <pre>
+ * BatchProcessor &lt;entrada&gt; &lt;sortida&gt; [--resize AMPLExALT] [--watermark text]
+ *                [--blur | --pixelate] [--format jpg|png|webp|bmp] [--quality 1-100] [--threads N]
+ * </pre>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class BatchProcessor {
+
+    private static final List<String> EXTENSIONS = Arrays.asList(".jpg", ".jpeg", ".png", ".bmp", ".webp");
+
+    private final BatchStage pipeline;
+    private final int parallelism;
+    private final ImageFiles.Format format;
+    private final int quality;
+
+    /**
+     * Resultat d'una execució per lots.
+     */
+    public static class Report {
+        private final int processed;
+        private final int failed;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long elapsedNanos;
+        private final int threads;
+
+        Report(int processed, int failed, long bytesIn, long bytesOut, long elapsedNanos, int threads) {
+            this.processed = processed;
+            this.failed = failed;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.elapsedNanos = elapsedNanos;
+            this.threads = threads;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public double getSeconds() {
+            return elapsedNanos / 1e9;
+        }
+
+        public double getImagesPerSecond() {
+            return getSeconds() > 0 ? processed / getSeconds() : 0;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = getSeconds();
+            return String.format("%d imatges (%d errors) en %.2f s amb %d fils: %.1f img/s, %.1f MB/s llegits, %.1f MB/s escrits",
+                    processed, failed, seconds, threads, getImagesPerSecond(),
+                    seconds > 0 ? bytesIn / 1e6 / seconds : 0, seconds > 0 ? bytesOut / 1e6 / seconds : 0);
+        }
+    }
+
+    /**
+     * Crea un processador per lots.
+     *
+     * @param pipeline Cadena d'etapes a aplicar a cada imatge.
+     * @param parallelism Nombre màxim de fils de treball.
+     * @param format Format de sortida.
+     * @param quality Qualitat de sortida (per als formats amb pèrdua).
+     */
+    public BatchProcessor(BatchStage pipeline, int parallelism, ImageFiles.Format format, int quality) {
+        this.pipeline = pipeline;
+        this.parallelism = Math.max(1, parallelism);
+        this.format = format;
+        this.quality = quality;
+    }
+
+    /**
+     * Processa totes les imatges d'un directori.
+     *
+     * @param inputDir Directori amb les imatges originals.
+     * @param outputDir Directori on es desen les imatges processades.
+     * @return El resum de l'execució.
+     * @throws InterruptedException Si s'interromp l'espera.
+     */
+    public Report process(File inputDir, File outputDir) throws InterruptedException {
+        File[] listed = inputDir.listFiles();
+        List<File> files = listed == null ? List.of() : Arrays.stream(listed)
+                .filter(File::isFile)
+                .filter(f -> EXTENSIONS.stream().anyMatch(ext -> f.getName().toLowerCase().endsWith(ext)))
+                .collect(Collectors.toList());
+        outputDir.mkdirs();
+
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        LongAdder bytesIn = new LongAdder();
+        LongAdder bytesOut = new LongAdder();
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> files.parallelStream().forEach(file -> {
+                File output = outputFile(file, outputDir);
+                if (processFile(file, output)) {
+                    processed.incrementAndGet();
+                    bytesIn.add(file.length());
+                    bytesOut.add(output.length());
+                } else {
+                    failed.incrementAndGet();
+                }
+            })).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error en el processament per lots", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return new Report(processed.get(), failed.get(), bytesIn.sum(), bytesOut.sum(),
+                System.nanoTime() - start, parallelism);
+    }
+
+    /**
+     * Llegeix, processa i escriu una sola imatge.
+     *
+     * @param input Fitxer d'entrada.
+     * @param output Fitxer de sortida.
+     * @return {@code true} si s'ha processat correctament.
+     */
+    private boolean processFile(File input, File output) {
+        Mat image = Imgcodecs.imread(input.getAbsolutePath());
+        Mat result = null;
+        MatOfInt params = ImageFiles.encodeParams(format, quality);
+        try {
+            if (image.empty()) {
+                System.err.println("No s'ha pogut llegir: " + input);
+                return false;
+            }
+            result = pipeline.apply(image);
+            return Imgcodecs.imwrite(output.getAbsolutePath(), result, params);
+        } catch (RuntimeException e) {
+            System.err.println("Error processant " + input + ": " + e.getMessage());
+            return false;
+        } finally {
+            image.release();
+            if (result != null) {
+                result.release();
+            }
+            params.release();
+        }
+    }
+
+    private File outputFile(File input, File outputDir) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(outputDir, base + "." + format.getExtension());
+    }
+
+    /**
+     * Punt d'entrada per executar el processament per lots des de la línia de comandes.
+     *
+     * @param args Directori d'entrada, directori de sortida i opcions.
+     * @throws InterruptedException Si s'interromp l'execució.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Ús: BatchProcessor <entrada> <sortida> [--resize AMPLExALT] [--watermark text]"
+                    + " [--blur | --pixelate] [--format jpg|png|webp|bmp] [--quality 1-100] [--threads N]");
+            return;
+        }
+        NativeLoader.load();
+        // El paral·lelisme el gestiona el ForkJoinPool: OpenCV no ha de crear més fils per imatge
+        Core.setNumThreads(1);
+
+        BatchStage pipeline = BatchStage.identity();
+        ImageFiles.Format format = ImageFiles.Format.JPEG;
+        int quality = 90;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--resize":
+                    String[] size = args[++i].toLowerCase().split("x");
+                    pipeline = pipeline.andThen(BatchStage.resize(Integer.parseInt(size[0]), Integer.parseInt(size[1])));
+                    break;
+                case "--watermark":
+                    pipeline = pipeline.andThen(BatchStage.watermark(args[++i]));
+                    break;
+                case "--blur":
+                    pipeline = pipeline.andThen(BatchStage.anonymizeFaces(FaceAnonymizer.Mode.BLUR));
+                    break;
+                case "--pixelate":
+                    pipeline = pipeline.andThen(BatchStage.anonymizeFaces(FaceAnonymizer.Mode.PIXELATE));
+                    break;
+                case "--format":
+                    format = ImageFiles.formatOf(new File("x." + args[++i]));
+                    if (format == null) {
+                        System.err.println("Format desconegut: " + args[i]);
+                        return;
+                    }
+                    break;
+                case "--quality":
+                    quality = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Opció desconeguda: " + args[i]);
+                    return;
+            }
+        }
+
+        BatchProcessor processor = new BatchProcessor(pipeline, threads, format, quality);
+        Report report = processor.process(new File(args[0]), new File(args[1]));
+        System.out.println(report);
+    }
+}
@@ -0,0 +1,115 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+/**
+ * Etapa del processament per lots d'imatges.
+ * <p>
+ * Cada etapa rep una imatge i en retorna el resultat. Pot modificar la imatge
+ * d'entrada directament i retornar-la, o crear-ne una de nova; en aquest cas
+ * ha d'alliberar l'entrada. Les etapes es combinen amb {@link #andThen}.
+ * Una mateixa etapa es fa servir des de diversos fils alhora, de manera que no
+ * pot guardar estat compartit entre imatges.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+@FunctionalInterface
+public interface BatchStage {
+
+    /**
+     * Processa una imatge.
+     *
+     * @param image Imatge d'entrada (BGR).
+     * @return La imatge processada.
+     */
+    Mat apply(Mat image);
+
+    /**
+     * Combina aquesta etapa amb una altra que s'executa a continuació.
+     *
+     * @param next L'etapa següent.
+     * @return Una etapa que aplica les dues en ordre.
+     */
+    default BatchStage andThen(BatchStage next) {
+        return image -> next.apply(apply(image));
+    }
+
+    /**
+     * Etapa que no fa res.
+     *
+     * @return L'etapa identitat.
+     */
+    static BatchStage identity() {
+        return image -> image;
+    }
+
+    /**
+     * Redimensiona la imatge perquè càpiga dins d'una mida màxima, mantenint la
+     * proporció. Les imatges més petites no es modifiquen.
+     *
+     * @param maxWidth Amplada màxima.
+     * @param maxHeight Alçada màxima.
+     * @return L'etapa de redimensionat.
+     */
+    static BatchStage resize(int maxWidth, int maxHeight) {
+        return image -> {
+            double scale = Math.min((double) maxWidth / image.width(), (double) maxHeight / image.height());
+            if (scale >= 1.0) {
+                return image;
+            }
+            Mat resized = new Mat();
+            Imgproc.resize(image, resized, new Size(Math.round(image.width() * scale), Math.round(image.height() * scale)),
+                    0, 0, Imgproc.INTER_AREA);
+            image.release();
+            return resized;
+        };
+    }
+
+    /**
+     * Escriu un text de marca d'aigua a la cantonada inferior dreta.
+     *
+     * @param text El text de la marca d'aigua.
+     * @return L'etapa de marca d'aigua.
+     */
+    static BatchStage watermark(String text) {
+        return image -> {
+            double fontScale = Math.max(0.5, image.width() / 1200.0);
+            int thickness = Math.max(1, (int) Math.round(fontScale * 2));
+            int[] baseline = new int[1];
+            Size textSize = Imgproc.getTextSize(text, Imgproc.FONT_HERSHEY_SIMPLEX, fontScale, thickness, baseline);
+            Point origin = new Point(image.width() - textSize.width - 10, image.height() - baseline[0] - 10);
+            // Ombra fosca sota el text perquè es llegeixi sobre qualsevol fons
+            Imgproc.putText(image, text, new Point(origin.x + 2, origin.y + 2), Imgproc.FONT_HERSHEY_SIMPLEX,
+                    fontScale, new Scalar(0, 0, 0), thickness + 1, Imgproc.LINE_AA);
+            Imgproc.putText(image, text, origin, Imgproc.FONT_HERSHEY_SIMPLEX,
+                    fontScale, new Scalar(255, 255, 255), thickness, Imgproc.LINE_AA);
+            return image;
+        };
+    }
+
+    /**
+     * Anonimitza les cares de la imatge amb el classificador en cascada.
+     * Cada fil de treball té el seu propi classificador, ja que no es poden
+     * compartir entre fils.
+     *
+     * @param mode Difuminat o pixelat.
+     * @return L'etapa d'anonimització.
+     */
+    static BatchStage anonymizeFaces(FaceAnonymizer.Mode mode) {
+        ThreadLocal<CascadeClassifier> classifiers = ThreadLocal.withInitial(
+                () -> new CascadeClassifier(FaceDetector.CASCADE_PATH));
+        return image -> {
+            // Mida mínima petita: en anonimitzar és pitjor deixar una cara sense tapar
+            Rect[] faces = FaceDetector.detectFaces(classifiers.get(), image, 0.05f);
+            FaceAnonymizer.apply(image, faces, mode);
+            return image;
+        };
+    }
+}
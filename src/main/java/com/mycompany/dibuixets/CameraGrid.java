@@ -0,0 +1,287 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.NativeLoader;
+import com.mycompany.dibuixets.dll.Preferences;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import javax.swing.JPanel;
+import javax.swing.Timer;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Panell que mostra diverses fonts de vídeo alhora en una graella.
+ * <p>
+ * Cada font té el seu fil de captura i el seu propi processament (detector de
+ * moviment i, si està activat, detector de cares), de manera que una càmera
+ * lenta o que falla no frena les altres. La detecció passa pel pool de càlcul
+ * compartit de {@link StreamExecutors}, i així amb 16 càmeres no hi ha més
+ * deteccions simultànies que nuclis. Cada fil redueix el fotograma a la mida
+ * de la seva cel·la abans de convertir-lo, i només en guarda l'últim.</p>
+ *
+ * <p>
+ * El pintat és únic per a tota la graella: un sol temporitzador de Swing
+ * repinta el panell {@code gridFps} vegades per segon (per defecte 15) i
+ * dibuixa l'última imatge de cada font. Els fils de captura no criden mai
+ * {@code repaint()}, de manera que el cost de pintar no creix amb el nombre
+ * de càmeres.</p>
+ *
+ * <p>
+ * Les fonts són les de {@link Cameras#sources()}, fins a {@code gridMaxFeeds}
+ * (per defecte 16). Els fitxers es reprodueixen a la seva cadència i tornen a
+ * començar en acabar; els fluxos en directe es llegeixen tan de pressa com
+ * arriben i, si es tallen, es tornen a obrir. La clau
+ * {@code gridFaces,false} de data/preferencias.txt desactiva la detecció de
+ * cares.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class CameraGrid extends JPanel {
+
+    private static final int STILL_REFRESH_FRAMES = 30; // Fotogrames sense moviment entre deteccions
+    private static final double DEFAULT_FILE_FPS = 25; // Si el fitxer no indica la seva cadència
+    private static final long RECONNECT_MS = 2000; // Espera abans de tornar a obrir un flux caigut
+
+    private final PanelLifecycle lifecycle = new PanelLifecycle("CameraGrid");
+    private final PipelineMetrics metrics = new PipelineMetrics("CameraGrid");
+    private final List<Feed> feeds = new CopyOnWriteArrayList<>();
+    private final boolean detectFaces;
+    private final Timer renderTimer;
+    private volatile String status = "Buscant càmeres...";
+
+    /**
+     * Una font de vídeo de la graella i l'estat que comparteix amb el pintat.
+     */
+    private class Feed {
+        final String source;
+        volatile VideoCapture capture; // Canvia si un flux en directe s'ha de tornar a obrir
+        volatile BufferedImage image; // Últim fotograma ja reduït a la mida de la cel·la
+        volatile boolean failed;
+        volatile int tileWidth, tileHeight; // Mida de la cel·la, la fixa el pintat
+        volatile int faces;
+        volatile double fps;
+
+        Feed(String source) {
+            this.source = source;
+        }
+
+        /**
+         * Cos del fil de captura d'aquesta font.
+         */
+        void run() throws InterruptedException {
+            boolean file = Cameras.isFile(source);
+            boolean live = !file && !Cameras.isDevice(source); // rtsp://, http://...
+            capture = Cameras.open(source);
+            lifecycle.onClose(() -> capture.release());
+            if (!capture.isOpened() && !live) {
+                failed = true;
+                return;
+            }
+            double sourceFps = capture.get(Videoio.CAP_PROP_FPS);
+            long frameNanos = file ? (long) (1e9 / (sourceFps > 0 ? sourceFps : DEFAULT_FILE_FPS)) : 0;
+
+            FaceDetectorBackend detector = detectFaces ? FaceDetectorBackend.fromPreferences() : null;
+            if (detector != null) {
+                lifecycle.onClose(detector::release);
+            }
+            MotionDetector motionDetector = new MotionDetector();
+            lifecycle.onClose(motionDetector::release);
+            Mat frame = lifecycle.mat(new Mat());
+
+            Rect[] found = new Rect[0];
+            int stillFrames = STILL_REFRESH_FRAMES;
+            long next = System.nanoTime();
+            long windowStart = next;
+            int windowFrames = 0;
+            while (lifecycle.awaitRunning()) {
+                long t = metrics.start();
+                if (!capture.read(frame) || frame.empty()) {
+                    if (file) {
+                        capture.set(Videoio.CAP_PROP_POS_FRAMES, 0); // Els fitxers es repeteixen
+                    } else if (live) {
+                        reconnect();
+                        continue;
+                    }
+                    Thread.sleep(10);
+                    continue;
+                }
+                t = metrics.stop("captura", t);
+
+                if (detector != null) {
+                    // Com als altres panells, només es busquen cares quan hi ha moviment
+                    if (motionDetector.update(frame).isMoving() || ++stillFrames >= STILL_REFRESH_FRAMES) {
+                        found = StreamExecutors.callCpu(() -> detector.detect(frame));
+                        stillFrames = 0;
+                    }
+                    faces = found.length;
+                    t = metrics.stop("detecció", t);
+                }
+
+                image = toTile(frame, found);
+                metrics.stop("conversió", t);
+
+                windowFrames++;
+                long now = System.nanoTime();
+                if (now - windowStart >= 1_000_000_000L) {
+                    fps = windowFrames * 1e9 / (now - windowStart);
+                    windowStart = now;
+                    windowFrames = 0;
+                }
+                if (file) {
+                    // Un fitxer es llegiria tan de pressa com es pogués: es reprodueix a la seva cadència
+                    next += frameNanos;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    } else {
+                        next = System.nanoTime();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Torna a obrir un flux en directe que ha deixat de donar fotogrames.
+         * Només el crida el fil de la font, i els recursos no s'alliberen fins
+         * que aquest fil acaba, així que es pot substituir la captura.
+         */
+        private void reconnect() throws InterruptedException {
+            failed = true;
+            capture.release();
+            Thread.sleep(RECONNECT_MS);
+            capture = Cameras.open(source);
+            failed = !capture.isOpened();
+        }
+
+        /**
+         * Redueix el fotograma a la mida de la cel·la, hi dibuixa les cares i el
+         * converteix en imatge.
+         */
+        private BufferedImage toTile(Mat frame, Rect[] found) {
+            int tw = tileWidth > 0 ? tileWidth : frame.cols();
+            int th = tileHeight > 0 ? tileHeight : frame.rows();
+            double scale = Math.min(1.0, Math.min((double) tw / frame.cols(), (double) th / frame.rows()));
+            int width = Math.max(1, (int) Math.round(frame.cols() * scale));
+            int height = Math.max(1, (int) Math.round(frame.rows() * scale));
+            try (MatPool.PooledMat small = MatPool.acquire(height, width, frame.type())) {
+                Imgproc.resize(frame, small, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+                for (Rect r : found) {
+                    Imgproc.rectangle(small, new Point(r.x * scale, r.y * scale),
+                            new Point((r.x + r.width) * scale, (r.y + r.height) * scale),
+                            new Scalar(0, 255, 0), 2);
+                }
+                return RealTimeFaceDetection.matToBufferedImage(small);
+            }
+        }
+    }
+
+    /**
+     * Crea la graella amb les fonts configurades.
+     */
+    public CameraGrid() {
+        this(null);
+    }
+
+    /**
+     * Crea la graella.
+     *
+     * @param sources Fonts a mostrar, o {@code null} per fer servir
+     * {@link Cameras#sources()}.
+     */
+    public CameraGrid(List<String> sources) {
+        NativeLoader.load();
+        this.detectFaces = Boolean.parseBoolean(Preferences.get("gridFaces", "true"));
+        setBackground(Color.BLACK);
+        setPreferredSize(new Dimension(1024, 768));
+
+        int fps = Math.max(1, (int) Preferences.getDouble("gridFps", 15));
+        renderTimer = new Timer(1000 / fps, e -> repaint());
+        renderTimer.start();
+        lifecycle.onClose(renderTimer::stop);
+        lifecycle.onClose(metrics::unregister);
+
+        // Buscar les càmeres pot trigar uns segons: no es fa al fil de Swing
+        lifecycle.start("fonts", () -> {
+            List<String> list = sources != null ? sources : Cameras.sources();
+            int max = Math.min(list.size(), (int) Preferences.getDouble("gridMaxFeeds", 16));
+            if (max == 0) {
+                status = "No s'ha trobat cap càmera";
+                return;
+            }
+            for (int i = 0; i < max && !lifecycle.isClosed(); i++) {
+                Feed feed = new Feed(list.get(i));
+                feeds.add(feed);
+                lifecycle.start("font-" + i, feed::run);
+            }
+            status = null;
+        });
+    }
+
+    /**
+     * Atura totes les captures i allibera les càmeres.
+     */
+    public void close() {
+        lifecycle.close();
+    }
+
+    /**
+     * Pinta l'última imatge de cada font a la seva cel·la.
+     *
+     * @param g Objecte Graphics utilitzat per dibuixar en el panell.
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        long t = metrics.start();
+        super.paintComponent(g);
+        g.setColor(Color.WHITE);
+        int n = feeds.size();
+        if (n == 0) {
+            g.drawString(status != null ? status : "Obrint les càmeres...", 20, 30);
+            return;
+        }
+
+        int cols = (int) Math.ceil(Math.sqrt(n));
+        int rows = (n + cols - 1) / cols;
+        int tileWidth = getWidth() / cols;
+        int tileHeight = getHeight() / rows;
+        for (int i = 0; i < n; i++) {
+            Feed feed = feeds.get(i);
+            feed.tileWidth = tileWidth;
+            feed.tileHeight = tileHeight;
+            int x = (i % cols) * tileWidth;
+            int y = (i / cols) * tileHeight;
+
+            BufferedImage image = feed.image;
+            if (image != null) {
+                // Si la cel·la s'ha fet petita, la imatge anterior s'escala fins al fotograma següent
+                double scale = Math.min(1.0, Math.min((double) tileWidth / image.getWidth(),
+                        (double) tileHeight / image.getHeight()));
+                int width = (int) (image.getWidth() * scale);
+                int height = (int) (image.getHeight() * scale);
+                g.drawImage(image, x + (tileWidth - width) / 2, y + (tileHeight - height) / 2, width, height, null);
+            } else {
+                g.drawString(feed.failed ? "No disponible" : "Obrint...", x + 10, y + tileHeight / 2);
+            }
+            g.drawRect(x, y, tileWidth - 1, tileHeight - 1);
+            String label = String.format("%s  %.0f fps", feed.source, feed.fps);
+            if (detectFaces && image != null) {
+                label += "  cares: " + feed.faces;
+            }
+            g.drawString(label, x + 6, y + tileHeight - 8);
+        }
+        metrics.stop("pintat", t);
+        metrics.drawOverlay((Graphics2D) g);
+    }
+}
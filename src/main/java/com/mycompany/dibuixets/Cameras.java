@@ -0,0 +1,111 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.NativeLoader;
+import com.mycompany.dibuixets.dll.Preferences;
+import org.opencv.videoio.VideoCapture;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Enumeració i obertura de les fonts de vídeo.
+ * <p>
+ * Una font és l'índex d'un dispositiu ({@code "0"}, {@code "2"}...) o bé la
+ * ruta d'un fitxer o l'URL d'un flux (per exemple {@code rtsp://...}) que
+ * OpenCV pugui obrir.</p>
+ *
+ * <p>
+ * Els dispositius es troben provant d'obrir els índexs de 0 a
+ * {@code maxCameras - 1} (per defecte 16). No s'atura al primer que falta,
+ * perquè en Linux és habitual que les càmeres siguin la 0 i la 2. La clau
+ * {@code gridSources} de data/preferencias.txt, amb les fonts separades per
+ * {@code ;}, substitueix la cerca.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public final class Cameras {
+
+    private static final Logger LOG = Logger.getLogger(Cameras.class.getName());
+
+    private Cameras() {
+    }
+
+    /**
+     * Busca els dispositius de vídeo connectats. Obrir cada índex pot trigar,
+     * així que no s'ha de cridar des del fil de Swing.
+     *
+     * @return Els índexs dels dispositius que s'han pogut obrir.
+     */
+    public static List<Integer> listDevices() {
+        NativeLoader.load();
+        int max = (int) Preferences.getDouble("maxCameras", 16);
+        List<Integer> devices = new ArrayList<>();
+        for (int index = 0; index < max; index++) {
+            // La preparació en segon pla ja la té oberta: no es pot tornar a obrir
+            if (ResourceWarmup.holdsCamera(index)) {
+                devices.add(index);
+                continue;
+            }
+            VideoCapture probe = ResourceWarmup.openDevice(index);
+            if (probe.isOpened()) {
+                devices.add(index);
+            }
+            probe.release();
+        }
+        LOG.info("Càmeres trobades: " + devices);
+        return devices;
+    }
+
+    /**
+     * @return Les fonts configurades a {@code gridSources}, o tots els
+     * dispositius connectats si no n'hi ha cap.
+     */
+    public static List<String> sources() {
+        List<String> sources = new ArrayList<>();
+        for (String source : Preferences.get("gridSources", "").split(";")) {
+            if (!source.isBlank()) {
+                sources.add(source.trim());
+            }
+        }
+        if (sources.isEmpty()) {
+            for (int index : listDevices()) {
+                sources.add(String.valueOf(index));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * @param source Font de vídeo.
+     * @return {@code true} si és l'índex d'un dispositiu.
+     */
+    public static boolean isDevice(String source) {
+        return !source.isEmpty() && source.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * @param source Font de vídeo.
+     * @return {@code true} si és un fitxer de vídeo local (i no un dispositiu
+     * ni un flux en directe).
+     */
+    public static boolean isFile(String source) {
+        return !isDevice(source) && new File(source).isFile();
+    }
+
+    /**
+     * Obre una font de vídeo. Els dispositius passen per
+     * {@link ResourceWarmup#takeCamera(int)} per aprofitar la càmera ja oberta.
+     *
+     * @param source Índex del dispositiu, fitxer o URL.
+     * @return La captura (cal comprovar {@code isOpened()}).
+     */
+    public static VideoCapture open(String source) {
+        if (isDevice(source)) {
+            return ResourceWarmup.takeCamera(Integer.parseInt(source));
+        }
+        NativeLoader.load();
+        return new VideoCapture(source);
+    }
+}
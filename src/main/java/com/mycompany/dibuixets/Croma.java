@@ -1,6 +1,6 @@
 package com.mycompany.dibuixets;
 
-import static com.mycompany.dibuixets.dll.Preferences.getOpenCVPath;
+import com.mycompany.dibuixets.dll.NativeLoader;
 import org.opencv.core.*;
 import org.opencv.videoio.VideoCapture;
 import org.opencv.imgproc.Imgproc;
@@ -41,15 +41,21 @@ private Scalar upperGreen = new Scalar(85, 255, 255);
 // Bandera para indicar si el efecto de croma está activado
 private boolean cromaActive = false;  
 
-// Bandera para controlar si la captura de video sigue en ejecución
-private boolean capturing = true;  
-
-// Hilo separado para ejecutar la captura de video de manera continua
-private Thread captureThread;  
+// Hilo de captura y recursos del panel; al cerrarlo se espera al hilo y se libera la cámara
+private final PanelLifecycle lifecycle = new PanelLifecycle("Croma");
 
 // Imagen de fondo que se usará para reemplazar el color verde
 private Mat backgroundImage = null;  
 
+// Grabación del vídeo con el croma aplicado, o null si no se está grabando
+private volatile VideoRecorder recorder = null;
+
+// Emisión HTTP del vídeo con el croma aplicado, o null si está desactivada
+private MjpegStreamServer.Channel stream;
+
+// Tiempo de cada etapa del procesamiento
+private final PipelineMetrics metrics = new PipelineMetrics("Croma");
+
 
     /**
      * Constructor que inicialitza la càmera i els botons per activar el croma i seleccionar el fons.
@@ -59,10 +65,23 @@ private Mat backgroundImage = null;
      * </p>
      */
     public Croma() {
-        System.load(getOpenCVPath());
+        NativeLoader.load();
 
-        capture = new VideoCapture(0);
-        frame = new Mat();
+        capture = lifecycle.camera(ResourceWarmup.takeCamera());
+        frame = lifecycle.mat(new Mat());
+        lifecycle.onClose(() -> {
+            if (backgroundImage != null) {
+                backgroundImage.release();
+            }
+        });
+        lifecycle.onClose(metrics::unregister);
+        lifecycle.onClose(() -> {
+            VideoRecorder current = recorder;
+            recorder = null;
+            if (current != null) {
+                current.stopInBackground(() -> { }); // Acaba el segment en curs sense esperar-lo
+            }
+        });
 
         // Verifica si la càmera s'ha obert correctament
         if (!capture.isOpened()) {
@@ -84,6 +103,39 @@ private Mat backgroundImage = null;
         JButton selectBackgroundButton = new JButton("Seleccionar Fondo");
         selectBackgroundButton.addActionListener(e -> selectBackgroundImage());
 
+        // Botó per gravar el vídeo amb el croma aplicat
+        JButton recordButton = new JButton("Gravar");
+        recordButton.addActionListener(e -> {
+            if (recorder == null) {
+                VideoRecorder started = VideoRecorder.fromPreferences(new File("videos"), "croma");
+                // Si l'escriptura falla, el gravador s'atura sol: es torna a l'estat inicial i s'avisa
+                started.setErrorListener(message -> {
+                    if (recorder != started) {
+                        return; // Ja s'havia aturat des del botó
+                    }
+                    recorder = null;
+                    recordButton.setEnabled(false);
+                    started.stopInBackground(() -> {
+                        recordButton.setEnabled(true);
+                        recordButton.setText("Gravar");
+                        JOptionPane.showMessageDialog(this, "Error gravant el vídeo: " + message,
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                    });
+                });
+                recorder = started;
+                recordButton.setText("Aturar Gravació");
+            } else {
+                VideoRecorder current = recorder;
+                recorder = null;
+                recordButton.setEnabled(false); // Fins que s'acabi d'escriure el fitxer
+                current.stopInBackground(() -> {
+                    recordButton.setEnabled(true);
+                    recordButton.setText("Gravar");
+                    JOptionPane.showMessageDialog(this, "Gravació aturada: " + current);
+                });
+            }
+        });
+
         // Botó per tancar la finestra
         //JButton backButton = new JButton("Tornar");
         //backButton.addActionListener(e -> stopCapture2());
@@ -91,25 +143,43 @@ private Mat backgroundImage = null;
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         buttonPanel.add(cromaButton);
         buttonPanel.add(selectBackgroundButton);
+        buttonPanel.add(recordButton);
         //buttonPanel.add(backButton);
 
         this.setLayout(new BorderLayout());
         this.add(buttonPanel, BorderLayout.SOUTH);
 
-        // Thread per capturar contínuament frames de la càmera
-        captureThread = new Thread(() -> {
-            while (capturing) {
+        MjpegStreamServer streamServer = MjpegStreamServer.shared();
+        stream = streamServer != null ? streamServer.channel("croma") : null;
+
+        // Fil per capturar contínuament frames de la càmera
+        lifecycle.start("captura", () -> {
+            while (lifecycle.awaitRunning()) {
+                long t = metrics.start();
                 capture.read(frame);
                 if (!frame.empty()) {
+                    t = metrics.stop("captura", t);
                     if (cromaActive && backgroundImage != null) {
                         applyChromaKeyEffect(frame);
+                        t = metrics.stop("croma", t);
                     }
+                    VideoRecorder currentRecorder = recorder;
+                    if (currentRecorder != null) {
+                        currentRecorder.offer(frame); // No bloqueja: si la cua és plena es descarta
+                    }
+                    if (stream != null) {
+                        stream.publish(frame); // Només es codifica si hi ha algun client connectat
+                    }
+                    t = metrics.stop("sortida", t);
                     bufferedImage = matToBufferedImage(frame);
+                    metrics.stop("conversió", t);
+                    metrics.frameReady();
                     repaint();
+                } else {
+                    Thread.sleep(10); // Sense fotograma: no es fa girar el bucle en buit
                 }
             }
         });
-        captureThread.start();
     }
 
     /**
@@ -155,40 +225,40 @@ private Mat backgroundImage = null;
      * @param frame El frame actual de la càmera a modificar.
      */
     private void applyChromaKeyEffect(Mat frame) {
-    // Crear una nueva matriz para almacenar la imagen en el espacio de color HSV
-    Mat hsvImage = new Mat();
-    Imgproc.cvtColor(frame, hsvImage, Imgproc.COLOR_BGR2HSV);
-
-    // Crear una máscara binaria para detectar el color verde dentro del rango especificado
-    Mat mask = new Mat();
-    Core.inRange(hsvImage, lowerGreen, upperGreen, mask);
-
-    // Invertir la máscara para obtener las áreas que no son verdes
-    Mat invMask = new Mat();
-    Core.bitwise_not(mask, invMask);
-
-    // Extraer el primer plano (todo excepto el fondo verde)
-    Mat foreground = new Mat();
-    frame.copyTo(foreground, invMask);
-
-    // Redimensionar la imagen de fondo para que coincida con el tamaño del frame de entrada
-    Mat backgroundResized = new Mat();
-    Imgproc.resize(backgroundImage, backgroundResized, frame.size());
-
-    // Extraer el fondo solo en las áreas donde estaba el color verde
-    Mat background = new Mat();
-    backgroundResized.copyTo(background, mask);
-
-    // Combinar el primer plano y el fondo para generar la imagen final
-    Core.add(foreground, background, frame);
-
-    // Liberar memoria de las matrices para evitar pérdidas de memoria
-    hsvImage.release();
-    mask.release();
-    invMask.release();
-    foreground.release();
-    backgroundResized.release();
-    background.release();
+        applyChromaKeyEffect(frame, backgroundImage, lowerGreen, upperGreen);
+    }
+
+    /**
+     * Aplica l'efecte de croma amb un fons i un rang de verds concrets.
+     *
+     * @param frame El frame a modificar.
+     * @param backgroundImage La imatge de fons.
+     * @param lowerGreen Límit inferior del verd (HSV).
+     * @param upperGreen Límit superior del verd (HSV).
+     */
+    static void applyChromaKeyEffect(Mat frame, Mat backgroundImage, Scalar lowerGreen, Scalar upperGreen) {
+    int rows = frame.rows();
+    int cols = frame.cols();
+    // Las matrices temporales salen de la reserva y vuelven a ella al salir del bloque
+    try (MatPool.PooledMat hsvImage = MatPool.acquire(rows, cols, CvType.CV_8UC3);
+            MatPool.PooledMat mask = MatPool.acquire(rows, cols, CvType.CV_8UC1)) {
+        // Convertir la imagen al espacio de color HSV
+        Imgproc.cvtColor(frame, hsvImage, Imgproc.COLOR_BGR2HSV);
+
+        // Crear una máscara binaria para detectar el color verde dentro del rango especificado
+        Core.inRange(hsvImage, lowerGreen, upperGreen, mask);
+
+        // Copiar el fondo directamente sobre las áreas verdes: el resto del frame ya es el primer plano
+        if (backgroundImage.rows() == rows && backgroundImage.cols() == cols) {
+            backgroundImage.copyTo(frame, mask);
+        } else {
+            // Redimensionar la imagen de fondo para que coincida con el tamaño del frame de entrada
+            try (MatPool.PooledMat backgroundResized = MatPool.acquire(rows, cols, backgroundImage.type())) {
+                Imgproc.resize(backgroundImage, backgroundResized, frame.size());
+                backgroundResized.copyTo(frame, mask);
+            }
+        }
+    }
 }
 
 
@@ -202,10 +272,14 @@ private Mat backgroundImage = null;
      */
     @Override
     protected void paintComponent(Graphics g) {
+        long t = metrics.start();
         super.paintComponent(g);
         if (bufferedImage != null) {
             g.drawImage(bufferedImage, 0, 0, this);
         }
+        metrics.stop("pintat", t);
+        metrics.drawOverlay((Graphics2D) g);
+        metrics.framePainted();
     }
 
     /**
@@ -218,18 +292,16 @@ private Mat backgroundImage = null;
      * @param mat La matriu OpenCV a convertir.
      * @return La imatge de tipus BufferedImage.
      */
-    private BufferedImage matToBufferedImage(Mat mat) {
+    static BufferedImage matToBufferedImage(Mat mat) {
         int width = mat.width();
         int height = mat.height();
-        Mat matRGB = new Mat();
-
-        Imgproc.cvtColor(mat, matRGB, Imgproc.COLOR_BGR2RGB);
-
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-        byte[] data = new byte[width * height * (int) matRGB.elemSize()];
-        matRGB.get(0, 0, data);
-        image.getRaster().setDataElements(0, 0, width, height, data);
-
+        try (MatPool.PooledMat matRGB = MatPool.acquire(height, width, CvType.CV_8UC3)) {
+            Imgproc.cvtColor(mat, matRGB, Imgproc.COLOR_BGR2RGB);
+            byte[] data = new byte[width * height * (int) matRGB.elemSize()];
+            matRGB.get(0, 0, data);
+            image.getRaster().setDataElements(0, 0, width, height, data);
+        }
         return image;
     }
 
@@ -241,17 +313,7 @@ private Mat backgroundImage = null;
      * </p>
      */
     public void stopCapture() {
-        capturing = false;
-        if (capture != null && capture.isOpened()) {
-            capture.release();
-        }
-        if (captureThread != null) {
-            try {
-                captureThread.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        lifecycle.close();
         Window window = SwingUtilities.getWindowAncestor(this);
         if (window != null) {
             window.dispose();
@@ -260,21 +322,9 @@ private Mat backgroundImage = null;
     }
     
    public void stopCapture2() {
-    capturing = false; // Detener la captura de vídeo
-    if (capture != null && capture.isOpened()) {
-        capture.release(); // Liberar los recursos de la cámara
-    }
+    // Detener el hilo de captura, esperar a que termine y liberar la cámara
+    lifecycle.close();
 
-    // Detener el hilo de captura si está en ejecución
-    if (captureThread != null && captureThread.isAlive()) {
-        try {
-            captureThread.join(); // Esperar a que el hilo termine
-        } catch (InterruptedException e) {
-            // Manejar cualquier excepción que pueda ocurrir cuando se interrumpe el hilo
-            e.printStackTrace();
-        }
-    }
-    
     // Aquí no cerramos la ventana, solo paramos la captura
 }
 
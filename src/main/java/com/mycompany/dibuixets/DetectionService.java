@@ -0,0 +1,469 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.NativeLoader;
+import com.mycompany.dibuixets.dll.Preferences;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sourceforge.tess4j.ITesseract;
+import net.sourceforge.tess4j.TesseractException;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Servei HTTP local de detecció de cares i reconeixement de text, sense Swing.
+ * <p>
+ * Rep imatges (JPEG, PNG...) al cos de la petició i retorna el resultat en
+ * JSON:
+ * </p>
+ * <ul>
+ * <li>{@code POST /faces}: cares detectades, amb la mateixa lògica que
+ * {@link FaceDetector} (o amb la xarxa DNN si {@code serviceBackend} és
+ * {@code dnn}).</li>
+ * <li>{@code POST /ocr}: text reconegut, amb el mateix preprocessat que
+ * {@link TextRecognition}.</li>
+ * <li>{@code GET /health}: estat del servei i mètriques.</li>
+ * </ul>
+ *
+ * <p>
+ * Les peticions de cares es posen en una cua de mida fixa que atenen uns
+ * quants fils de treball, cadascun amb el seu propi detector. Quan hi ha
+ * càrrega, cada fil agafa diverses peticions de cop i les processa com un
+ * lot ({@link FaceDetectorBackend#detectBatch}), cosa que amb la xarxa DNN es
+ * fa en una sola inferència. Els motors de Tesseract es reutilitzen des d'un
+ * grup i el nombre d'OCR simultanis està limitat. Quan la cua és plena o no hi
+ * ha cap motor lliure a temps, es respon 503 perquè el balancejador provi una
+ * altra instància.</p>
+ *
+ * <p>
+ * Abans de llegir el cos, cada petició de cares o d'OCR ha d'obtenir una plaça
+ * d'admissió (tantes com fils de detecció, places a la cua i dos per motor
+ * d'OCR). Si no n'hi ha cap de lliure es respon 503 de seguida. Així, encara
+ * que els fils HTTP no estiguin limitats, mai hi ha més imatges llegides i
+ * descodificades a memòria que peticions que es poden atendre.</p>
+ *
+ * <p>
+ * Es configura amb les claus {@code servicePort}, {@code serviceWorkers},
+ * {@code serviceQueue}, {@code serviceMaxBatch}, {@code serviceOcrEngines} i
+ * {@code serviceBackend} de data/preferencias.txt.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class DetectionService {
+
+    private static final int MAX_UPLOAD_BYTES = 20 * 1024 * 1024;
+    private static final long REQUEST_TIMEOUT_MS = 30_000;
+
+    /**
+     * Petició de detecció de cares pendent. Un cop a la cua, la imatge
+     * l'allibera el fil de treball, ja que el client pot haver deixat
+     * d'esperar.
+     */
+    private static class FaceJob {
+        final Mat image;
+        final CompletableFuture<Rect[]> result = new CompletableFuture<>();
+
+        FaceJob(Mat image) {
+            this.image = image;
+        }
+    }
+
+    /**
+     * Detector per a imatges soltes amb el classificador en cascada, sense
+     * l'estat entre fotogrames de {@link CascadeFaceDetector}.
+     */
+    private static class StillImageCascade implements FaceDetectorBackend {
+        private final CascadeClassifier classifier = new CascadeClassifier(FaceDetector.CASCADE_PATH);
+
+        @Override
+        public Rect[] detect(Mat frame) {
+            return FaceDetector.detectFaces(classifier, frame);
+        }
+
+        @Override
+        public String getName() {
+            return "cascade";
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService httpThreads;
+    private final List<Thread> workers = new ArrayList<>();
+    private final BlockingQueue<FaceJob> faceQueue;
+    private final int maxBatch;
+    private final BlockingQueue<ITesseract> ocrEngines;
+    private final Semaphore ocrSlots;
+    private final Semaphore admission; // Peticions que poden tenir la imatge a memòria alhora
+    private volatile boolean running = true;
+
+    // Mètriques
+    private final long startTime = System.currentTimeMillis();
+    private final LongAdder faceRequests = new LongAdder();
+    private final LongAdder ocrRequests = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedImages = new LongAdder();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final LongAdder completed = new LongAdder();
+
+    /**
+     * Crea i engega el servei.
+     *
+     * @param port Port TCP.
+     * @param workers Fils de detecció de cares (i detectors carregats).
+     * @param queueCapacity Peticions de cares que poden esperar.
+     * @param maxBatch Mida màxima d'un lot.
+     * @param ocrEngines Motors de Tesseract (i OCR simultanis).
+     * @param backend {@code cascade} o {@code dnn}.
+     * @throws IOException Si no es pot obrir el port.
+     */
+    public DetectionService(int port, int workers, int queueCapacity, int maxBatch, int ocrEngines, String backend)
+            throws IOException {
+        this.faceQueue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.ocrEngines = new ArrayBlockingQueue<>(Math.max(1, ocrEngines));
+        for (int i = 0; i < Math.max(1, ocrEngines); i++) {
+            this.ocrEngines.add(TextRecognition.createEngine());
+        }
+        this.ocrSlots = new Semaphore(Math.max(1, ocrEngines));
+        // Els que s'estan processant, els que esperen a la cua i els que esperen un motor d'OCR
+        this.admission = new Semaphore(Math.max(1, workers) + Math.max(1, queueCapacity) + Math.max(1, ocrEngines) * 2);
+
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            FaceDetectorBackend detector = "dnn".equalsIgnoreCase(backend)
+                    ? FaceDetectorBackend.create("dnn")
+                    : new StillImageCascade();
+            Thread worker = new Thread(() -> faceLoop(detector), "faces-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            this.workers.add(worker);
+        }
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        // Els fils HTTP passen gairebé tot el temps esperant el detector o un motor d'OCR lliure:
+        // amb fils virtuals cada petició té el seu, i el que es limita és l'admissió
+        this.httpThreads = StreamExecutors.newIoExecutor("http");
+        server.setExecutor(httpThreads);
+        server.createContext("/faces", exchange -> admit(exchange, this::handleFaces));
+        server.createContext("/ocr", exchange -> admit(exchange, this::handleOcr));
+        server.createContext("/health", this::handleHealth);
+        server.start();
+    }
+
+    /**
+     * Atura el servei.
+     */
+    public void stop() {
+        running = false;
+        server.stop(0);
+        httpThreads.shutdownNow();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Bucle d'un fil de detecció: espera una petició i s'emporta també les que
+     * ja s'hi han acumulat, fins a la mida màxima del lot.
+     */
+    private void faceLoop(FaceDetectorBackend detector) {
+        List<FaceJob> batch = new ArrayList<>(maxBatch);
+        try {
+            while (running) {
+                FaceJob first = faceQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                faceQueue.drainTo(batch, maxBatch - 1);
+                batches.increment();
+                batchedImages.add(batch.size());
+
+                List<Mat> images = new ArrayList<>(batch.size());
+                for (FaceJob job : batch) {
+                    images.add(job.image);
+                }
+                try {
+                    List<Rect[]> results = detector.detectBatch(images);
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).result.complete(results.get(i));
+                    }
+                } catch (RuntimeException e) {
+                    for (FaceJob job : batch) {
+                        job.result.completeExceptionally(e);
+                    }
+                } finally {
+                    for (FaceJob job : batch) {
+                        job.image.release();
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            detector.release();
+        }
+    }
+
+    /**
+     * Atén una petició només si hi ha una plaça d'admissió lliure; si no, respon
+     * 503 sense llegir-ne el cos.
+     */
+    private void admit(HttpExchange exchange, HttpHandler handler) throws IOException {
+        if (!admission.tryAcquire()) {
+            rejected.increment();
+            try {
+                sendJson(exchange, 503, "{\"error\":\"Servei saturat\"}");
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+        try {
+            handler.handle(exchange);
+        } finally {
+            admission.release();
+        }
+    }
+
+    private void handleFaces(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, "{\"error\":\"Cal fer servir POST\"}");
+                return;
+            }
+            faceRequests.increment();
+            long start = System.nanoTime();
+            Mat image = readImage(exchange);
+            if (image == null) {
+                return;
+            }
+            int width = image.cols();
+            int height = image.rows();
+            FaceJob job = new FaceJob(image);
+            if (!faceQueue.offer(job)) {
+                image.release();
+                rejected.increment();
+                sendJson(exchange, 503, "{\"error\":\"Servei saturat\"}");
+                return;
+            }
+            try {
+                Rect[] faces = job.result.get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                long elapsed = System.nanoTime() - start;
+                record(elapsed);
+
+                StringBuilder json = new StringBuilder();
+                json.append("{\"width\":").append(width)
+                        .append(",\"height\":").append(height)
+                        .append(",\"ms\":").append(String.format(Locale.ROOT, "%.1f", elapsed / 1e6))
+                        .append(",\"faces\":[");
+                for (int i = 0; i < faces.length; i++) {
+                    Rect r = faces[i];
+                    json.append(i > 0 ? "," : "")
+                            .append("{\"x\":").append(r.x).append(",\"y\":").append(r.y)
+                            .append(",\"width\":").append(r.width).append(",\"height\":").append(r.height).append('}');
+                }
+                json.append("]}");
+                sendJson(exchange, 200, json.toString());
+            } catch (TimeoutException e) {
+                errors.increment();
+                sendJson(exchange, 504, "{\"error\":\"Temps d'espera esgotat\"}");
+            } catch (ExecutionException e) {
+                errors.increment();
+                sendJson(exchange, 500, "{\"error\":" + quote(String.valueOf(e.getCause().getMessage())) + "}");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleOcr(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, "{\"error\":\"Cal fer servir POST\"}");
+                return;
+            }
+            ocrRequests.increment();
+            long start = System.nanoTime();
+            Mat image = readImage(exchange);
+            if (image == null) {
+                return;
+            }
+            ITesseract engine = null;
+            try {
+                if (!ocrSlots.tryAcquire(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    rejected.increment();
+                    sendJson(exchange, 503, "{\"error\":\"Servei saturat\"}");
+                    return;
+                }
+                engine = ocrEngines.take(); // Sempre n'hi ha un de lliure si s'ha obtingut el permís
+                String text = engine.doOCR(toBinaryImage(image));
+                long elapsed = System.nanoTime() - start;
+                record(elapsed);
+                sendJson(exchange, 200, "{\"ms\":" + String.format(Locale.ROOT, "%.1f", elapsed / 1e6)
+                        + ",\"text\":" + quote(text == null ? "" : text.trim()) + "}");
+            } catch (TesseractException e) {
+                errors.increment();
+                sendJson(exchange, 500, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (engine != null) {
+                    ocrEngines.add(engine);
+                    ocrSlots.release();
+                }
+                image.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            long done = completed.sum();
+            long batchCount = batches.sum();
+            String json = "{\"status\":\"ok\""
+                    + ",\"uptimeSeconds\":" + (System.currentTimeMillis() - startTime) / 1000
+                    + ",\"faceRequests\":" + faceRequests.sum()
+                    + ",\"ocrRequests\":" + ocrRequests.sum()
+                    + ",\"rejected\":" + rejected.sum()
+                    + ",\"errors\":" + errors.sum()
+                    + ",\"queued\":" + faceQueue.size()
+                    + ",\"ocrEnginesFree\":" + ocrEngines.size()
+                    + ",\"batches\":" + batchCount
+                    + ",\"averageBatch\":" + String.format(Locale.ROOT, "%.2f",
+                            batchCount > 0 ? (double) batchedImages.sum() / batchCount : 0)
+                    + ",\"averageMs\":" + String.format(Locale.ROOT, "%.1f",
+                            done > 0 ? totalLatencyNanos.get() / 1e6 / done : 0)
+                    + "}";
+            sendJson(exchange, 200, json);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void record(long elapsedNanos) {
+        totalLatencyNanos.addAndGet(elapsedNanos);
+        completed.increment();
+    }
+
+    /**
+     * Llegeix i descodifica la imatge del cos de la petició.
+     *
+     * @return La imatge, o {@code null} si no és vàlida (ja s'ha respost l'error).
+     */
+    private Mat readImage(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readNBytes(MAX_UPLOAD_BYTES + 1);
+        }
+        if (body.length > MAX_UPLOAD_BYTES) {
+            sendJson(exchange, 413, "{\"error\":\"Imatge massa gran\"}");
+            return null;
+        }
+        MatOfByte encoded = new MatOfByte(body);
+        Mat image = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR);
+        encoded.release();
+        if (image.empty()) {
+            image.release();
+            sendJson(exchange, 400, "{\"error\":\"No s'ha pogut llegir la imatge\"}");
+            return null;
+        }
+        return image;
+    }
+
+    /**
+     * Binaritza la imatge igual que {@link TextRecognition} abans de l'OCR.
+     */
+    private static BufferedImage toBinaryImage(Mat image) {
+        Mat gray = new Mat();
+        TextRecognition.binarize(image, gray);
+        BufferedImage result = TextRecognition.matToBufferedImage(gray);
+        gray.release();
+        return result;
+    }
+
+    private static String quote(String text) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Punt d'entrada del servei.
+     *
+     * @param args Port opcional (per defecte {@code servicePort} o 8090).
+     * @throws IOException Si no es pot obrir el port.
+     */
+    public static void main(String[] args) throws IOException {
+        NativeLoader.load();
+        // Les peticions ja s'atenen en paral·lel: OpenCV no ha de crear més fils per imatge
+        Core.setNumThreads(1);
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : (int) Preferences.getDouble("servicePort", 8090);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        new DetectionService(port,
+                (int) Preferences.getDouble("serviceWorkers", cpus),
+                (int) Preferences.getDouble("serviceQueue", cpus * 8),
+                (int) Preferences.getDouble("serviceMaxBatch", 8),
+                (int) Preferences.getDouble("serviceOcrEngines", Math.max(1, cpus / 2)),
+                Preferences.get("serviceBackend", "cascade"));
+        System.out.println("Servei de detecció escoltant al port " + port);
+    }
+}
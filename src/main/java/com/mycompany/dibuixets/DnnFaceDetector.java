@@ -0,0 +1,120 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Image2BlobParams;
+import org.opencv.dnn.Net;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detector de cares amb la xarxa ResNet-SSD d'OpenCV DNN.
+ * <p>
+ * Carrega el model Caffe {@code res10_300x300_ssd} des d'un fitxer local. És
+ * més precís que la cascada Haar i el seu cost no depèn de la resolució del
+ * fotograma, ja que la xarxa sempre treballa a 300x300. El blob d'entrada es
+ * reserva una sola vegada i es reutilitza, i {@link #detectBatch(List)} fa una
+ * sola inferència per a diversos fotogrames.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class DnnFaceDetector implements FaceDetectorBackend {
+
+    /** Ruta per defecte dels pesos del model. */
+    public static final String DEFAULT_MODEL = "data/res10_300x300_ssd_iter_140000.caffemodel";
+    /** Ruta per defecte de la descripció de la xarxa. */
+    public static final String DEFAULT_CONFIG = "data/deploy.prototxt";
+
+    private static final Size INPUT_SIZE = new Size(300, 300);
+    private static final Scalar MEAN = new Scalar(104.0, 177.0, 123.0);
+
+    private final Net net;
+    private final double confidenceThreshold;
+    private final Image2BlobParams blobParams;
+    private final Mat blob = new Mat(); // Blob d'entrada reutilitzat entre inferències
+
+    /**
+     * Carrega la xarxa.
+     *
+     * @param modelPath Fitxer de pesos (.caffemodel).
+     * @param configPath Fitxer de descripció (.prototxt).
+     * @param confidenceThreshold Confiança mínima (0-1) per acceptar una cara.
+     */
+    public DnnFaceDetector(String modelPath, String configPath, double confidenceThreshold) {
+        if (!new File(modelPath).isFile() || !new File(configPath).isFile()) {
+            throw new IllegalArgumentException("No s'ha trobat el model DNN: " + modelPath + ", " + configPath);
+        }
+        this.net = Dnn.readNet(modelPath, configPath);
+        this.net.setPreferableBackend(Dnn.DNN_BACKEND_OPENCV);
+        this.net.setPreferableTarget(Dnn.DNN_TARGET_CPU);
+        this.confidenceThreshold = confidenceThreshold;
+        this.blobParams = new Image2BlobParams(new Scalar(1.0), INPUT_SIZE, MEAN, false, CvType.CV_32F);
+    }
+
+    @Override
+    public Rect[] detect(Mat frame) {
+        return detectBatch(Collections.singletonList(frame)).get(0);
+    }
+
+    @Override
+    public List<Rect[]> detectBatch(List<Mat> frames) {
+        Dnn.blobFromImagesWithParams(frames, blob, blobParams);
+        net.setInput(blob);
+        Mat output = net.forward();
+
+        // Sortida [1, 1, N, 7]: id d'imatge, classe, confiança, x1, y1, x2, y2 (normalitzades)
+        int rows = (int) (output.total() / 7);
+        float[] data = new float[rows * 7];
+        output.reshape(1, rows).get(0, 0, data);
+        output.release();
+
+        List<List<Rect>> perFrame = new ArrayList<>(frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            perFrame.add(new ArrayList<>());
+        }
+        for (int r = 0; r < rows; r++) {
+            int o = r * 7;
+            int image = (int) data[o];
+            float confidence = data[o + 2];
+            if (image < 0 || image >= frames.size() || confidence < confidenceThreshold) {
+                continue;
+            }
+            Mat frame = frames.get(image);
+            int x1 = clamp(Math.round(data[o + 3] * frame.cols()), frame.cols());
+            int y1 = clamp(Math.round(data[o + 4] * frame.rows()), frame.rows());
+            int x2 = clamp(Math.round(data[o + 5] * frame.cols()), frame.cols());
+            int y2 = clamp(Math.round(data[o + 6] * frame.rows()), frame.rows());
+            if (x2 > x1 && y2 > y1) {
+                perFrame.get(image).add(new Rect(x1, y1, x2 - x1, y2 - y1));
+            }
+        }
+
+        List<Rect[]> results = new ArrayList<>(frames.size());
+        for (List<Rect> rects : perFrame) {
+            results.add(rects.toArray(new Rect[0]));
+        }
+        return results;
+    }
+
+    @Override
+    public String getName() {
+        return "dnn";
+    }
+
+    @Override
+    public void release() {
+        blob.release();
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+}
@@ -0,0 +1,205 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Anonimitza les cares detectades difuminant-les o pixelant-les.
+ * <p>
+ * L'efecte s'aplica només a les regions de les cares mitjançant submatrius, de
+ * manera que no cal filtrar el fotograma sencer. Per al vídeo en directe, les
+ * caixes es suavitzen entre fotogrames i es mantenen uns quants fotogrames
+ * després de l'última detecció, perquè una cara no quedi al descobert quan el
+ * detector la perd un moment.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class FaceAnonymizer {
+
+    /**
+     * Tipus d'anonimització.
+     */
+    public enum Mode {
+        BLUR, PIXELATE
+    }
+
+    private static final double MARGIN = 0.15; // Marge afegit al voltant de cada cara
+    private static final double SMOOTHING = 0.5; // Pes de la nova detecció en la mitjana mòbil
+    private static final double MIN_OVERLAP = 0.3; // Solapament mínim per considerar que és la mateixa cara
+    private static final int PIXEL_BLOCKS = 12; // Blocs per costat en mode pixelat
+
+    private final Mode mode;
+    private final int holdFrames;
+    private final List<Track> tracks = new ArrayList<>();
+
+    /**
+     * Caixa d'una cara seguida entre fotogrames.
+     */
+    private static class Track {
+        double x, y, width, height;
+        int missed; // Fotogrames seguits sense detecció
+
+        Track(Rect r) {
+            x = r.x;
+            y = r.y;
+            width = r.width;
+            height = r.height;
+        }
+
+        Rect toRect() {
+            return new Rect((int) Math.round(x), (int) Math.round(y), (int) Math.round(width), (int) Math.round(height));
+        }
+    }
+
+    /**
+     * Crea un anonimitzador.
+     *
+     * @param mode Tipus d'efecte.
+     * @param holdFrames Fotogrames que es manté una caixa després de perdre la cara
+     * (0 per a imatges soltes).
+     */
+    public FaceAnonymizer(Mode mode, int holdFrames) {
+        this.mode = mode;
+        this.holdFrames = holdFrames;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Actualitza les caixes seguides amb les deteccions del fotograma actual i
+     * anonimitza el fotograma.
+     *
+     * @param frame Fotograma a modificar.
+     * @param detections Cares detectades en aquest fotograma.
+     * @return Les caixes que s'han anonimitzat.
+     */
+    public Rect[] process(Mat frame, Rect[] detections) {
+        Rect[] boxes = update(detections);
+        apply(frame, boxes, mode);
+        return boxes;
+    }
+
+    /**
+     * Actualitza el seguiment de les cares amb les noves deteccions.
+     *
+     * @param detections Cares detectades en el fotograma actual.
+     * @return Les caixes suavitzades, incloent-hi les cares perdudes fa poc.
+     */
+    public Rect[] update(Rect[] detections) {
+        List<Track> matched = new ArrayList<>();
+        for (Rect detection : detections) {
+            Track best = null;
+            double bestOverlap = MIN_OVERLAP;
+            for (Track track : tracks) {
+                if (matched.contains(track)) {
+                    continue;
+                }
+                double overlap = overlap(track.toRect(), detection);
+                if (overlap > bestOverlap) {
+                    best = track;
+                    bestOverlap = overlap;
+                }
+            }
+            if (best == null) {
+                best = new Track(detection);
+                tracks.add(best);
+            } else {
+                best.x += SMOOTHING * (detection.x - best.x);
+                best.y += SMOOTHING * (detection.y - best.y);
+                best.width += SMOOTHING * (detection.width - best.width);
+                best.height += SMOOTHING * (detection.height - best.height);
+            }
+            best.missed = 0;
+            matched.add(best);
+        }
+
+        Rect[] boxes = new Rect[tracks.size()];
+        int n = 0;
+        for (Iterator<Track> it = tracks.iterator(); it.hasNext();) {
+            Track track = it.next();
+            if (!matched.contains(track) && ++track.missed > holdFrames) {
+                it.remove();
+                continue;
+            }
+            boxes[n++] = track.toRect();
+        }
+        return Arrays.copyOf(boxes, n);
+    }
+
+    /**
+     * Oblida totes les cares seguides.
+     */
+    public void reset() {
+        tracks.clear();
+    }
+
+    /**
+     * Aplica l'efecte a les regions indicades.
+     *
+     * @param frame Imatge a modificar.
+     * @param boxes Regions de les cares.
+     * @param mode Tipus d'efecte.
+     */
+    public static void apply(Mat frame, Rect[] boxes, Mode mode) {
+        for (Rect box : boxes) {
+            Rect region = expand(box, frame.cols(), frame.rows());
+            if (region.width <= 1 || region.height <= 1) {
+                continue;
+            }
+            Mat roi = frame.submat(region);
+            if (mode == Mode.PIXELATE) {
+                pixelate(roi);
+            } else {
+                blur(roi);
+            }
+            roi.release();
+        }
+    }
+
+    private static void blur(Mat roi) {
+        // Nucli proporcional a la cara perquè no es puguin reconèixer els trets
+        int k = Math.max(3, (Math.min(roi.cols(), roi.rows()) / 4) | 1);
+        Imgproc.GaussianBlur(roi, roi, new Size(k, k), 0);
+    }
+
+    private static void pixelate(Mat roi) {
+        int blocksX = Math.max(1, Math.min(PIXEL_BLOCKS, roi.cols()));
+        int blocksY = Math.max(1, Math.min(PIXEL_BLOCKS, roi.rows()));
+        try (MatPool.PooledMat small = MatPool.acquire(blocksY, blocksX, roi.type())) {
+            Imgproc.resize(roi, small, new Size(blocksX, blocksY), 0, 0, Imgproc.INTER_AREA);
+            Imgproc.resize(small, roi, roi.size(), 0, 0, Imgproc.INTER_NEAREST);
+        }
+    }
+
+    private static Rect expand(Rect r, int maxWidth, int maxHeight) {
+        int dx = (int) (r.width * MARGIN);
+        int dy = (int) (r.height * MARGIN);
+        int x0 = Math.max(0, r.x - dx);
+        int y0 = Math.max(0, r.y - dy);
+        int x1 = Math.min(maxWidth, r.x + r.width + dx);
+        int y1 = Math.min(maxHeight, r.y + r.height + dy);
+        return new Rect(x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0));
+    }
+
+    private static double overlap(Rect a, Rect b) {
+        int x0 = Math.max(a.x, b.x);
+        int y0 = Math.max(a.y, b.y);
+        int x1 = Math.min(a.x + a.width, b.x + b.width);
+        int y1 = Math.min(a.y + a.height, b.y + b.height);
+        if (x1 <= x0 || y1 <= y0) {
+            return 0;
+        }
+        double intersection = (double) (x1 - x0) * (y1 - y0);
+        return intersection / (a.area() + b.area() - intersection);
+    }
+}
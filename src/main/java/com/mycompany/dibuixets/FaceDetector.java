@@ -5,7 +5,7 @@
 package com.mycompany.dibuixets;
 
 import com.mycompany.dibuixets.dll.Constants;
-import static com.mycompany.dibuixets.dll.Preferences.getOpenCVPath;
+import com.mycompany.dibuixets.dll.NativeLoader;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Rect;
@@ -36,7 +36,7 @@ public class FaceDetector {
      */
     public static void main(String[] args){
         // Cargar la librería de OpenCV
-        System.load(getOpenCVPath());
+        NativeLoader.load();
         
         // Leer la imagen desde el disco
         Mat image = Imgcodecs.imread("images/,,nk.jpg");
@@ -45,6 +45,9 @@ public class FaceDetector {
         detectAndSave(image);
     }
 
+    /** Ruta del clasificador en cascada entrenado para detectar caras. */
+    public static final String CASCADE_PATH = "data/haarcascade_frontalface_alt2.xml";
+
     /**
      * Método que detecta las caras en la imagen proporcionada y las marca con rectángulos.
      * Luego guarda la imagen resultante con las caras detectadas en un archivo.
@@ -52,6 +55,48 @@ public class FaceDetector {
      * @param image Imagen en la que se realizarán las detecciones de caras.
      */
     private static void detectAndSave(Mat image) {
+        // Crear un objeto CascadeClassifier para cargar el clasificador en cascada
+        CascadeClassifier faceCascade = new CascadeClassifier();
+        
+        // Cargar el archivo entrenado para la detección de caras
+        faceCascade.load(CASCADE_PATH);
+        
+        // Obtener las caras detectadas como un array de rectángulos
+        Rect[] faceArray = detectFaces(faceCascade, image);
+        
+        // Dibujar rectángulos alrededor de las caras detectadas
+        for (int i = 0; i < faceArray.length; i++) {
+            Imgproc.rectangle(image, faceArray[i], new Scalar(255, 123, 45), 3);
+        }
+        
+        // Guardar la imagen con las caras marcadas en un archivo de salida
+        Imgcodecs.imwrite("images/output.jpg", image);
+    }
+
+    /**
+     * Detecta las caras de una imagen con el clasificador indicado.
+     * <p>
+     * La imagen se convierte a escala de grises y se ecualiza su histograma antes
+     * de la detección. El tamaño mínimo de cara es el 20% de la altura de la imagen.
+     * El clasificador no se puede compartir entre hilos.</p>
+     *
+     * @param faceCascade Clasificador en cascada ya cargado.
+     * @param image Imagen en color (BGR).
+     * @return Los rectángulos de las caras detectadas.
+     */
+    public static Rect[] detectFaces(CascadeClassifier faceCascade, Mat image) {
+        return detectFaces(faceCascade, image, 0.2f);
+    }
+
+    /**
+     * Detecta las caras de una imagen con un tamaño mínimo de cara configurable.
+     *
+     * @param faceCascade Clasificador en cascada ya cargado.
+     * @param image Imagen en color (BGR).
+     * @param minFaceFraction Tamaño mínimo de cara respecto a la altura de la imagen.
+     * @return Los rectángulos de las caras detectadas.
+     */
+    public static Rect[] detectFaces(CascadeClassifier faceCascade, Mat image, float minFaceFraction) {
         // Crear un objeto MatOfRect para almacenar las caras detectadas
         MatOfRect faces = new MatOfRect();
         
@@ -66,32 +111,20 @@ public class FaceDetector {
         int height = grayFrame.height();
         int absoluteFaceSize = 0;
         
-        // Si la altura es mayor que un 20% de la imagen, establecer el tamaño mínimo de cara
-        if (Math.round(height * 0.2f) > 0) {
-            absoluteFaceSize = Math.round(height * 0.2f);
+        // Si la fracción de la altura es mayor que 0, establecer el tamaño mínimo de cara
+        if (Math.round(height * minFaceFraction) > 0) {
+            absoluteFaceSize = Math.round(height * minFaceFraction);
         }
         
-        // Crear un objeto CascadeClassifier para cargar el clasificador en cascada
-        CascadeClassifier faceCascade = new CascadeClassifier();
-        
-        // Cargar el archivo entrenado para la detección de caras
-        faceCascade.load("data/haarcascade_frontalface_alt2.xml");
-        
         // Detectar las caras en la imagen
         faceCascade.detectMultiScale(
             grayFrame, faces, 1.1, 2, 0 | Objdetect.CASCADE_SCALE_IMAGE, 
             new Size(absoluteFaceSize, absoluteFaceSize), new Size()
         );
         
-        // Obtener las caras detectadas como un array de rectángulos
         Rect[] faceArray = faces.toArray();
-        
-        // Dibujar rectángulos alrededor de las caras detectadas
-        for (int i = 0; i < faceArray.length; i++) {
-            Imgproc.rectangle(image, faceArray[i], new Scalar(255, 123, 45), 3);
-        }
-        
-        // Guardar la imagen con las caras marcadas en un archivo de salida
-        Imgcodecs.imwrite("images/output.jpg", image);
+        grayFrame.release();
+        faces.release();
+        return faceArray;
     }
 }
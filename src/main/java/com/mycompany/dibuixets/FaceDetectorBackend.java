@@ -0,0 +1,87 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Motor de detecció de cares intercanviable.
+ * <p>
+ * Permet triar entre el classificador en cascada de sempre
+ * ({@link CascadeFaceDetector}) i una xarxa neuronal d'OpenCV DNN
+ * ({@link DnnFaceDetector}) amb la clau {@code faceBackend} de
+ * data/preferencias.txt ({@code cascade} o {@code dnn}). Les implementacions
+ * no es poden fer servir des de diversos fils alhora.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public interface FaceDetectorBackend {
+
+    /**
+     * Detecta les cares d'un fotograma.
+     *
+     * @param frame Fotograma en color (BGR).
+     * @return Les caixes de les cares en coordenades del fotograma.
+     */
+    Rect[] detect(Mat frame);
+
+    /**
+     * Detecta les cares de diversos fotogrames de cop. Per defecte es processen
+     * un per un; els motors que admeten lots ho fan en una sola inferència.
+     *
+     * @param frames Fotogrames en color (BGR).
+     * @return Les cares de cada fotograma, en el mateix ordre.
+     */
+    default List<Rect[]> detectBatch(List<Mat> frames) {
+        List<Rect[]> results = new ArrayList<>(frames.size());
+        for (Mat frame : frames) {
+            results.add(detect(frame));
+        }
+        return results;
+    }
+
+    /**
+     * Nom del motor, per als registres i les proves de rendiment.
+     *
+     * @return El nom del motor.
+     */
+    String getName();
+
+    /**
+     * Allibera els recursos natius del motor.
+     */
+    void release();
+
+    /**
+     * Crea el motor configurat a data/preferencias.txt.
+     *
+     * @return El motor de detecció.
+     */
+    static FaceDetectorBackend fromPreferences() {
+        return create(Preferences.get("faceBackend", "cascade"));
+    }
+
+    /**
+     * Crea un motor pel seu nom.
+     *
+     * @param name {@code cascade} o {@code dnn}.
+     * @return El motor de detecció.
+     */
+    static FaceDetectorBackend create(String name) {
+        switch (name.toLowerCase()) {
+            case "dnn":
+                return new DnnFaceDetector(
+                        Preferences.get("dnnModel", DnnFaceDetector.DEFAULT_MODEL),
+                        Preferences.get("dnnConfig", DnnFaceDetector.DEFAULT_CONFIG),
+                        Preferences.getDouble("dnnConfidence", 0.5));
+            case "cascade":
+                return new CascadeFaceDetector(FaceDetector.CASCADE_PATH);
+            default:
+                throw new IllegalArgumentException("Motor de detecció desconegut: " + name);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.NativeLoader;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compara el rendiment dels motors de detecció de cares sobre les imatges d'un
+ * directori.
+ * <p>
+ * Per a cada motor es fa una passada d'escalfament i després es mesura el temps
+ * mitjà per imatge i el nombre de cares trobades. Els motors que admeten lots
+ * es mesuren també processant totes les imatges en una sola crida.
+ * </p>
+ * <pre>
+ * FaceDetectorBenchmark &lt;directori&gt; [iteracions] [motor...]
+ * </pre>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class FaceDetectorBenchmark {
+
+    /**
+     * Punt d'entrada de la prova de rendiment.
+     *
+     * @param args Directori d'imatges, nombre d'iteracions i motors a provar
+     * (per defecte {@code cascade} i {@code dnn}).
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Ús: FaceDetectorBenchmark <directori> [iteracions] [cascade|dnn ...]");
+            return;
+        }
+        NativeLoader.load();
+
+        List<Mat> images = new ArrayList<>();
+        File[] files = new File(args[0]).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Mat image = Imgcodecs.imread(file.getAbsolutePath());
+                if (!image.empty()) {
+                    images.add(image);
+                }
+            }
+        }
+        if (images.isEmpty()) {
+            System.err.println("No hi ha imatges a " + args[0]);
+            return;
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<String> backends = args.length > 2
+                ? Arrays.asList(args).subList(2, args.length)
+                : Arrays.asList("cascade", "dnn");
+
+        for (String name : backends) {
+            FaceDetectorBackend backend;
+            try {
+                backend = FaceDetectorBackend.create(name);
+            } catch (RuntimeException e) {
+                System.err.println(name + ": " + e.getMessage());
+                continue;
+            }
+            if (backend instanceof CascadeFaceDetector) {
+                // Les imatges no són fotogrames seguits: sense això es buscaria al voltant de cares d'una altra foto
+                ((CascadeFaceDetector) backend).setFullScanInterval(0);
+            }
+            try {
+                run(backend, images, iterations);
+            } finally {
+                backend.release();
+            }
+        }
+        for (Mat image : images) {
+            image.release();
+        }
+    }
+
+    private static void run(FaceDetectorBackend backend, List<Mat> images, int iterations) {
+        // Escalfament: la primera inferència inclou la inicialització del motor
+        for (Mat image : images) {
+            backend.detect(image);
+        }
+
+        int faces = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (Mat image : images) {
+                Rect[] found = backend.detect(image);
+                if (i == 0) {
+                    faces += found.length;
+                }
+            }
+        }
+        double perImage = (System.nanoTime() - start) / 1e6 / (iterations * images.size());
+        System.out.printf("%-16s %8.2f ms/imatge  %5.1f img/s  %d cares%n",
+                backend.getName(), perImage, 1000 / perImage, faces);
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            backend.detectBatch(images);
+        }
+        perImage = (System.nanoTime() - start) / 1e6 / (iterations * images.size());
+        System.out.printf("%-16s %8.2f ms/imatge  %5.1f img/s  (lot de %d)%n",
+                backend.getName() + " lot", perImage, 1000 / perImage, images.size());
+    }
+}
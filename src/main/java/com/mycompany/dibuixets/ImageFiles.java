@@ -0,0 +1,155 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Utilitats per llegir i escriure imatges sense bloquejar la interfície.
+ * <p>
+ * Permet obtenir les dimensions d'una imatge llegint només la capçalera del fitxer
+ * (sense descodificar els píxels) i construir els paràmetres de codificació d'OpenCV
+ * segons el format i la qualitat escollits per l'usuari.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class ImageFiles {
+
+    /** Mida màxima (amplada i alçada) amb què es mostren les imatges al Paint. */
+    public static final int MAX_DISPLAY_SIZE = 800;
+
+    /**
+     * Formats de sortida suportats per desar imatges.
+     */
+    public enum Format {
+        JPEG("jpg", "Imatge JPEG"),
+        PNG("png", "Imatge PNG"),
+        WEBP("webp", "Imatge WebP"),
+        BMP("bmp", "Imatge BMP");
+
+        private final String extension;
+        private final String description;
+
+        Format(String extension, String description) {
+            this.extension = extension;
+            this.description = description;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * Indica si el format accepta un paràmetre de qualitat (0-100).
+         *
+         * @return {@code true} si el format té pèrdua i es pot ajustar la qualitat.
+         */
+        public boolean hasQuality() {
+            return this == JPEG || this == WEBP;
+        }
+    }
+
+    private ImageFiles() {
+    }
+
+    /**
+     * Llegeix les dimensions d'una imatge a partir de la capçalera del fitxer.
+     *
+     * @param file Fitxer d'imatge.
+     * @return Les dimensions de la imatge o {@code null} si no es poden llegir.
+     */
+    public static Dimension readDimensions(File file) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calcula la mida que ocuparà una imatge un cop ajustada a {@link #MAX_DISPLAY_SIZE}
+     * mantenint la proporció original.
+     *
+     * @param width Amplada original.
+     * @param height Alçada original.
+     * @return La mida ajustada.
+     */
+    public static Dimension fitToDisplay(int width, int height) {
+        if (width <= MAX_DISPLAY_SIZE && height <= MAX_DISPLAY_SIZE) {
+            return new Dimension(width, height);
+        }
+        double aspectRatio = (double) width / height;
+        int newWidth = MAX_DISPLAY_SIZE;
+        int newHeight = (int) (newWidth / aspectRatio);
+        if (newHeight > MAX_DISPLAY_SIZE) {
+            newHeight = MAX_DISPLAY_SIZE;
+            newWidth = (int) (newHeight * aspectRatio);
+        }
+        return new Dimension(newWidth, newHeight);
+    }
+
+    /**
+     * Obté el format de sortida a partir de l'extensió d'un fitxer.
+     *
+     * @param file Fitxer de destí.
+     * @return El format corresponent o {@code null} si l'extensió no és coneguda.
+     */
+    public static Format formatOf(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return Format.JPEG;
+        }
+        for (Format format : Format.values()) {
+            if (name.endsWith("." + format.getExtension())) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Construeix els paràmetres de codificació per a {@code Imgcodecs.imwrite}.
+     *
+     * @param format Format de sortida.
+     * @param quality Qualitat entre 0 i 100 (s'ignora per als formats sense pèrdua).
+     * @return Els paràmetres de codificació.
+     */
+    public static MatOfInt encodeParams(Format format, int quality) {
+        switch (format) {
+            case JPEG:
+                return new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+            case WEBP:
+                return new MatOfInt(Imgcodecs.IMWRITE_WEBP_QUALITY, Math.max(1, quality));
+            case PNG:
+                // Compressió ràpida: el PNG no perd qualitat i el nivell 9 és molt lent
+                return new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, 3);
+            default:
+                return new MatOfInt();
+        }
+    }
+}
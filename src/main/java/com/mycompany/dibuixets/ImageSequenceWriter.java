@@ -0,0 +1,150 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Escriptura asíncrona d'una seqüència d'imatges numerades.
+ * <p>
+ * Cada fotograma es copia en una de les matrius reservades i es codifica i
+ * s'escriu a disc en un grup de fils d'entrada/sortida, de manera que el fil
+ * de captura no s'espera mai a {@code imwrite}. Els fitxers es numeren
+ * seqüencialment ({@code prefix_00001.jpg}, ...). Si tots els buffers estan
+ * ocupats el fotograma es descarta i es compta.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class ImageSequenceWriter {
+
+    private final File directory;
+    private final String prefix;
+    private final ImageFiles.Format format;
+    private final int quality;
+    private final ExecutorService pool;
+    private final BlockingQueue<Mat> free; // Matrius disponibles per copiar-hi fotogrames
+    private final Object closeLock = new Object(); // Evita que s'encui un fotograma mentre es tanca
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Crea un escriptor de seqüències.
+     *
+     * @param directory Directori on es desen les imatges (es crea si no existeix).
+     * @param prefix Prefix del nom dels fitxers.
+     * @param format Format de les imatges.
+     * @param quality Qualitat (per als formats amb pèrdua).
+     * @param threads Fils d'escriptura.
+     * @param buffers Fotogrames que poden estar pendents d'escriure alhora.
+     */
+    public ImageSequenceWriter(File directory, String prefix, ImageFiles.Format format, int quality,
+            int threads, int buffers) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.format = format;
+        this.quality = quality;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "image-writer-" + prefix);
+            t.setDaemon(true);
+            return t;
+        });
+        int capacity = Math.max(1, buffers);
+        this.free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.add(new Mat());
+        }
+        directory.mkdirs();
+    }
+
+    /**
+     * Afegeix un fotograma a la seqüència sense bloquejar.
+     *
+     * @param frame Fotograma a desar. Es copia, de manera que es pot reutilitzar
+     * tan bon punt torna el mètode.
+     * @return {@code false} si s'ha descartat perquè no hi havia cap buffer lliure.
+     */
+    public boolean submit(Mat frame) {
+        if (frame.empty()) {
+            return false;
+        }
+        synchronized (closeLock) {
+            if (pool.isShutdown()) {
+                return false;
+            }
+            Mat buffer = free.poll();
+            if (buffer == null) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            frame.copyTo(buffer);
+            // El número s'assigna aquí perquè l'ordre dels fitxers sigui el de captura
+            File file = new File(directory, String.format("%s_%05d.%s", prefix, sequence.incrementAndGet(), format.getExtension()));
+            pool.execute(() -> {
+                MatOfInt params = ImageFiles.encodeParams(format, quality);
+                try {
+                    if (Imgcodecs.imwrite(file.getAbsolutePath(), buffer, params)) {
+                        written.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                } finally {
+                    params.release();
+                    free.add(buffer);
+                }
+            });
+            return true;
+        }
+    }
+
+    /**
+     * Espera que s'escriguin les imatges pendents i atura els fils.
+     *
+     * @throws InterruptedException Si s'interromp l'espera.
+     */
+    public void close() throws InterruptedException {
+        synchronized (closeLock) {
+            // Un submit a mitges acaba d'encuar el seu fotograma abans del tancament
+            pool.shutdown();
+        }
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        for (Mat m : free) {
+            m.release();
+        }
+        free.clear();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d imatges desades a %s (%d descartades, %d errors)",
+                written.get(), directory, dropped.get(), failed.get());
+    }
+}
@@ -0,0 +1,129 @@
+package com.mycompany.dibuixets;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latències amb cubetes logarítmiques, a l'estil d'HdrHistogram.
+ * <p>
+ * Els valors (en nanosegons) es reparteixen en cubetes de mida doble cada
+ * vegada, i cada cubeta es divideix en 64 subcubetes lineals, de manera que
+ * l'error relatiu és inferior a l'1,6% en tot el rang. Registrar un valor és
+ * una operació de temps constant, sense cap assignació de memòria, i es pot
+ * fer des de diversos fils alhora.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // 128
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2; // 64
+    private static final int MAX_BUCKET = 34; // Fins a 2^41 ns (uns 36 minuts)
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_BUCKET * SUB_BUCKET_HALF + SUB_BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra una latència.
+     *
+     * @param nanos Durada en nanosegons.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long n = total.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    /**
+     * Retorna el valor per sota del qual hi ha el percentatge indicat de mostres.
+     *
+     * @param percentile Percentil entre 0 i 100.
+     * @return La latència en nanosegons (0 si no hi ha mostres).
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long accumulated = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            accumulated += counts.get(i);
+            if (accumulated >= target) {
+                return Math.min(max.get(), representativeValue(i));
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Afegeix totes les mostres d'un altre histograma a aquest.
+     *
+     * @param other L'histograma d'origen.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Esborra totes les mostres.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int bucket = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        if (bucket > MAX_BUCKET) {
+            return MAX_BUCKET * SUB_BUCKET_HALF + SUB_BUCKET_COUNT - 1; // Valors fora de rang a l'última cubeta
+        }
+        return bucket * SUB_BUCKET_HALF + (int) (value >>> bucket);
+    }
+
+    /**
+     * Valor central de la subcubeta indicada.
+     */
+    private static long representativeValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int bucket = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long sub = index - (long) bucket * SUB_BUCKET_HALF;
+        return (sub << bucket) + ((1L << bucket) >> 1);
+    }
+}
@@ -1,6 +1,6 @@
 package com.mycompany.dibuixets;
 
-import com.mycompany.dibuixets.dll.Preferences;
+import com.mycompany.dibuixets.dll.NativeLoader;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -25,20 +25,22 @@ public class Mainn {
      * cas).
      */
     public static void main(String[] args) {
-        // Carregar la llibreria OpenCV
-        String opencvPath = Preferences.getOpenCVPath();
-        if (opencvPath != null) {
-            System.load(opencvPath);
-        } else {
+        // Carregar la llibreria OpenCV (els panells ja la troben carregada)
+        try {
+            NativeLoader.load();
+        } catch (UnsatisfiedLinkError e) {
             JOptionPane.showMessageDialog(null, "No s'ha pogut carregar la llibreria OpenCV.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
+        // Mentre es mostra el menú, es preparen la càmera, el detector de cares i l'OCR en segon pla.
+        // OpenCV es carrega abans perquè, si no es troba, el diàleg per triar-lo s'ha d'obrir aquí
+        ResourceWarmup.start();
 
         // Crear el frame principal
         JFrame mainFrame = new JFrame("Editor d'Imatges - Menú Principal");
         mainFrame.setLayout(new BorderLayout());
         mainFrame.add(createMainMenu(mainFrame), BorderLayout.CENTER);
-        mainFrame.setSize(400, 400);
+        mainFrame.setSize(400, 470);
         mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         mainFrame.setLocationRelativeTo(null);
         mainFrame.setVisible(true);
@@ -74,10 +76,11 @@ public class Mainn {
         JButton button4 = new JButton("Paint 2030", paintIcon);
         JButton button5 = new JButton("Object Tracking", trackIcon);
         JButton button6 = new JButton("Detector de Text", textIcon);
+        JButton button7 = new JButton("Multicàmera", trackIcon);
 
         // Configurar botones
         Dimension buttonSize = new Dimension(220, 50);
-        JButton[] buttons = {button1, button2, button3, button4, button5, button6};
+        JButton[] buttons = {button1, button2, button3, button4, button5, button6, button7};
 
         for (JButton button : buttons) {
             button.setPreferredSize(buttonSize);
@@ -111,6 +114,9 @@ public class Mainn {
             new TextRecognition(); // Crear i mostrar el panell de TextRecognition
         });
 
+        // Acció per al botó Multicàmera
+        button7.addActionListener(e -> openCameraGridPanel(mainFrame));
+
         // Afegir els botons al panell
         buttonPanel.add(button1, gbc);
         gbc.gridy++;
@@ -123,6 +129,8 @@ public class Mainn {
         buttonPanel.add(button5, gbc);
         gbc.gridy++;
         buttonPanel.add(button6, gbc);  // Afegir el nou botó
+        gbc.gridy++;
+        buttonPanel.add(button7, gbc);
 
         JPanel contentPanel = new JPanel(new BorderLayout());
         contentPanel.add(buttonPanel, BorderLayout.CENTER);
@@ -168,14 +176,11 @@ public class Mainn {
     private static void openDrawingPanel(JFrame mainFrame) {
     String imagePath = "images/,,nk.jpg";
 
-    // Cargar la imagen para obtener sus dimensiones
-    ImageIcon imageIcon = new ImageIcon(imagePath);
-    int imageWidth = imageIcon.getIconWidth();
-    int imageHeight = imageIcon.getIconHeight();
-
-    // Crear el panel de dibujo y ajustar su tamaño a la imagen
+    // Crear el panel de dibujo: la imagen se carga en segundo plano y el tamaño
+    // se obtiene de la cabecera del fichero, sin decodificarla dos veces
     OpenCVDrawingApp2 drawingPanel = new OpenCVDrawingApp2(imagePath);
-    drawingPanel.setPreferredSize(new Dimension(imageWidth, imageHeight));
+    int imageWidth = drawingPanel.getPreferredSize().width;
+    int imageHeight = drawingPanel.getPreferredSize().height;
 
     mainFrame.getContentPane().removeAll();
     mainFrame.add(drawingPanel, BorderLayout.WEST);
@@ -217,15 +222,40 @@ public class Mainn {
         refreshFrame(mainFrame, 800, 600);
     }
 
+    /**
+     * Obre la graella de càmeres en el frame principal.
+     *
+     * @param mainFrame El frame principal.
+     */
+    private static void openCameraGridPanel(JFrame mainFrame) {
+        CameraGrid cameraGrid = new CameraGrid();
+        mainFrame.getContentPane().removeAll();
+        mainFrame.add(cameraGrid, BorderLayout.CENTER);
+
+        JButton backButton = new JButton("Tornar");
+        backButton.addActionListener(e -> {
+            cameraGrid.close();
+            resetToMainMenu(mainFrame);
+        });
+
+        JPanel southPanel = new JPanel();
+        southPanel.add(backButton);
+        mainFrame.add(southPanel, BorderLayout.SOUTH);
+
+        refreshFrame(mainFrame, 1024, 768);
+    }
+
     /**
      * Reinicia el frame principal per mostrar el menú principal.
      *
      * @param mainFrame El frame principal.
      */
     private static void resetToMainMenu(JFrame mainFrame) {
+        // El panell anterior ja s'ha tancat: si algun fil seu continua viu, s'avisa
+        PanelLifecycle.reportLeakedThreads(System.err);
         mainFrame.getContentPane().removeAll();
         mainFrame.add(createMainMenu(mainFrame), BorderLayout.CENTER);
-        refreshFrame(mainFrame, 400, 400);
+        refreshFrame(mainFrame, 400, 470);
     }
 
     /**
@@ -0,0 +1,211 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reserva de matrius reutilitzables per mida i tipus.
+ * <p>
+ * Les etapes de cada fotograma (grisos, HSV, màscares, conversions a RGB...)
+ * necessiten matrius temporals de la mateixa mida a cada fotograma. En lloc de
+ * reservar i alliberar memòria nativa cada vegada, es demanen a aquesta
+ * reserva amb try-with-resources i, en tancar-les, hi tornen:
+ * </p>
+ * <pre>
+ * try (MatPool.PooledMat gray = MatPool.acquire(frame.rows(), frame.cols(), CvType.CV_8UC1)) {
+ *     Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>
+ * Cada fil té la seva pròpia reserva, de manera que no cal sincronitzar res i
+ * els fils de detecció paral·lela no competeixen entre ells. Els bytes que pot
+ * guardar cada fil estan limitats per la clau {@code matPoolMaxMB} de
+ * data/preferencias.txt (per defecte 64): si en tornar una matriu se
+ * superaria el límit, s'allibera. Un cop l'aplicació ha arribat al règim
+ * estable, els fotogrames ja no reserven memòria nativa.</p>
+ *
+ * <p>
+ * La matriu que es retorna té la mida i el tipus demanats però el contingut és
+ * el de l'ús anterior: si cal que comenci a zero, s'ha d'inicialitzar.</p>
+ *
+ * <p>
+ * Les matrius de la reserva són {@link TrackedMat}: {@link MatTracker} les
+ * compta mentre existeixen, tant si estan en ús com si esperen a la reserva,
+ * i detecta les que es perden sense tornar-les.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public final class MatPool {
+
+    private static final long MAX_BYTES_PER_THREAD = (long) (Preferences.getDouble("matPoolMaxMB", 64) * 1024 * 1024);
+
+    private static final ThreadLocal<MatPool> POOLS = ThreadLocal.withInitial(MatPool::new);
+
+    // Estadístiques de tots els fils
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder DISCARDED = new LongAdder();
+    private static final AtomicLong POOLED_BYTES = new AtomicLong();
+    private static final AtomicLong PEAK_BYTES = new AtomicLong();
+
+    private final Map<Key, ArrayDeque<PooledMat>> free = new HashMap<>();
+    private long bytes = 0; // Bytes guardats per aquest fil
+
+    private MatPool() {
+    }
+
+    /**
+     * Matriu de la reserva. En tancar-la torna a la reserva del fil que la
+     * tanca en lloc d'alliberar-se; només s'allibera (i surt del comptatge de
+     * {@link MatTracker}) quan la reserva la descarta.
+     */
+    public static final class PooledMat extends TrackedMat {
+        private boolean pooled = false;
+
+        private PooledMat(int rows, int cols, int type) {
+            super(rows, cols, type);
+        }
+
+        @Override
+        public void close() {
+            if (!pooled) {
+                POOLS.get().giveBack(this);
+            }
+        }
+
+        private void discard() {
+            super.close();
+        }
+    }
+
+    private static final class Key {
+        final int rows, cols, type;
+
+        Key(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return rows == k.rows && cols == k.cols && type == k.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rows, cols, type);
+        }
+    }
+
+    /**
+     * Obté una matriu de la reserva del fil actual, o en crea una si no n'hi ha
+     * cap de lliure amb aquesta mida i tipus.
+     *
+     * @param rows Files.
+     * @param cols Columnes.
+     * @param type Tipus d'OpenCV ({@code CvType}).
+     * @return Una matriu amb la mida i el tipus demanats.
+     */
+    public static PooledMat acquire(int rows, int cols, int type) {
+        return POOLS.get().take(new Key(rows, cols, type));
+    }
+
+    private PooledMat take(Key key) {
+        ArrayDeque<PooledMat> queue = free.get(key);
+        PooledMat mat = queue == null ? null : queue.pollFirst();
+        if (mat == null) {
+            MISSES.increment();
+            return new PooledMat(key.rows, key.cols, key.type);
+        }
+        HITS.increment();
+        long size = sizeOf(mat);
+        bytes -= size;
+        POOLED_BYTES.addAndGet(-size);
+        mat.pooled = false;
+        return mat;
+    }
+
+    private void giveBack(PooledMat mat) {
+        // Una operació d'OpenCV pot haver canviat la mida o el tipus: es guarda amb els de debò
+        long size = sizeOf(mat);
+        if (mat.empty() || bytes + size > MAX_BYTES_PER_THREAD) {
+            mat.discard();
+            DISCARDED.increment();
+            return;
+        }
+        mat.pooled = true;
+        free.computeIfAbsent(new Key(mat.rows(), mat.cols(), mat.type()), k -> new ArrayDeque<>()).addFirst(mat);
+        bytes += size;
+        PEAK_BYTES.accumulateAndGet(POOLED_BYTES.addAndGet(size), Math::max);
+    }
+
+    /**
+     * Allibera totes les matrius guardades pel fil actual. Convé cridar-ho
+     * abans que acabi un fil que ha fet servir la reserva.
+     */
+    public static void clearCurrentThread() {
+        MatPool pool = POOLS.get();
+        for (ArrayDeque<PooledMat> queue : pool.free.values()) {
+            for (PooledMat mat : queue) {
+                mat.discard();
+            }
+        }
+        pool.free.clear();
+        POOLED_BYTES.addAndGet(-pool.bytes);
+        pool.bytes = 0;
+        POOLS.remove();
+    }
+
+    private static long sizeOf(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    /**
+     * @return Matrius obtingudes de la reserva sense reservar memòria.
+     */
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    /**
+     * @return Matrius que s'han hagut de crear.
+     */
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    /**
+     * @return Matrius alliberades en tornar-les perquè se superava el límit.
+     */
+    public static long getDiscarded() {
+        return DISCARDED.sum();
+    }
+
+    /**
+     * @return Bytes guardats ara mateix entre tots els fils.
+     */
+    public static long getPooledBytes() {
+        return POOLED_BYTES.get();
+    }
+
+    /**
+     * @return Màxim de bytes que s'han arribat a guardar entre tots els fils.
+     */
+    public static long getPeakBytes() {
+        return PEAK_BYTES.get();
+    }
+}
@@ -0,0 +1,206 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+import org.opencv.core.Mat;
+
+import java.io.PrintStream;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Comptabilitat de la memòria nativa de les matrius {@link TrackedMat}.
+ * <p>
+ * La memòria de les matrius d'OpenCV és fora del heap de Java: el
+ * recol·lector no la veu i, si no es fa {@code release()}, una aplicació que
+ * funciona hores acaba sense memòria encara que el heap estigui buit. Aquesta
+ * classe compta les matrius vives i els bytes nadius que ocupen, i detecta
+ * les que el recol·lector ha recollit sense que ningú les tanqués.
+ * </p>
+ *
+ * <p>
+ * En mode de depuració (clau {@code matDebug,true} de data/preferencias.txt o
+ * propietat del sistema {@code dibuixets.matDebug}) es guarda la pila de
+ * cada creació: cada fuita s'informa amb el lloc on es va crear la matriu i
+ * {@link #reportLeaks(PrintStream)} agrupa les matrius vives per lloc. En
+ * aquest mode l'informe també s'escriu en tancar l'aplicació.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public final class MatTracker {
+
+    private static final boolean DEBUG = Boolean.getBoolean("dibuixets.matDebug")
+            || Boolean.parseBoolean(Preferences.get("matDebug", "false"));
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final Map<Long, Registration> LIVE = new ConcurrentHashMap<>();
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final AtomicLong CREATED = new AtomicLong();
+    private static final AtomicLong CLOSED = new AtomicLong();
+    private static final AtomicLong LEAKED = new AtomicLong();
+
+    static {
+        if (DEBUG) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> reportLeaks(System.err), "mat-leak-report"));
+        }
+    }
+
+    private MatTracker() {
+    }
+
+    /**
+     * Registre d'una matriu viva. No conserva cap referència forta a la
+     * matriu, perquè el netejador es pugui executar si es perd.
+     */
+    static final class Registration implements Runnable {
+        private final long id;
+        private final WeakReference<Mat> mat;
+        private final Throwable site; // Només en mode de depuració
+        private final long createdAt = System.nanoTime();
+        private volatile boolean closed = false;
+        private Cleaner.Cleanable cleanable;
+
+        private Registration(long id, Mat mat, Throwable site) {
+            this.id = id;
+            this.mat = new WeakReference<>(mat);
+            this.site = site;
+        }
+
+        /**
+         * Tancament explícit.
+         */
+        void close() {
+            if (!closed) {
+                closed = true;
+                CLOSED.incrementAndGet();
+                cleanable.clean();
+            }
+        }
+
+        /**
+         * L'executa el netejador, ja sigui en tancar o quan el recol·lector
+         * recull una matriu que no s'havia tancat.
+         */
+        @Override
+        public void run() {
+            LIVE.remove(id);
+            if (!closed) {
+                LEAKED.incrementAndGet();
+                if (DEBUG) {
+                    System.err.println("Matriu recollida sense tancar, creada a: " + describe(site));
+                }
+            }
+        }
+
+        private long bytes() {
+            Mat m = mat.get();
+            return m == null ? 0 : m.total() * m.elemSize();
+        }
+    }
+
+    static Registration register(TrackedMat mat) {
+        long id = IDS.incrementAndGet();
+        Registration registration = new Registration(id, mat,
+                DEBUG ? new Throwable("Matriu creada aquí") : null);
+        registration.cleanable = CLEANER.register(mat, registration);
+        LIVE.put(id, registration);
+        CREATED.incrementAndGet();
+        return registration;
+    }
+
+    /**
+     * @return Nombre de matrius vives.
+     */
+    public static int getLiveCount() {
+        return LIVE.size();
+    }
+
+    /**
+     * @return Bytes nadius que ocupen les dades de les matrius vives.
+     */
+    public static long getLiveBytes() {
+        long total = 0;
+        for (Registration r : LIVE.values()) {
+            total += r.bytes();
+        }
+        return total;
+    }
+
+    public static long getCreated() {
+        return CREATED.get();
+    }
+
+    public static long getClosed() {
+        return CLOSED.get();
+    }
+
+    /**
+     * @return Matrius que el recol·lector ha recollit sense tancar.
+     */
+    public static long getLeaked() {
+        return LEAKED.get();
+    }
+
+    public static boolean isDebugEnabled() {
+        return DEBUG;
+    }
+
+    /**
+     * Escriu el resum de les matrius vives. En mode de depuració les agrupa pel
+     * lloc on es van crear, de més a menys bytes.
+     *
+     * @param out On s'escriu l'informe.
+     */
+    public static void reportLeaks(PrintStream out) {
+        out.printf("Matrius: %d vives (%.1f MB), %d creades, %d tancades, %d recollides sense tancar%n",
+                getLiveCount(), getLiveBytes() / 1e6, getCreated(), getClosed(), getLeaked());
+        if (!DEBUG) {
+            return;
+        }
+        Map<String, long[]> bySite = new LinkedHashMap<>(); // lloc -> {matrius, bytes, edat màxima}
+        long now = System.nanoTime();
+        for (Registration r : LIVE.values()) {
+            long[] stats = bySite.computeIfAbsent(describe(r.site), k -> new long[3]);
+            stats[0]++;
+            stats[1] += r.bytes();
+            stats[2] = Math.max(stats[2], now - r.createdAt);
+        }
+        List<Map.Entry<String, long[]>> sorted = new ArrayList<>(bySite.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+        for (Map.Entry<String, long[]> e : sorted) {
+            long[] s = e.getValue();
+            out.printf("  %d matrius, %.1f MB, la més antiga de fa %d s: %s%n",
+                    s[0], s[1] / 1e6, s[2] / 1_000_000_000L, e.getKey());
+        }
+    }
+
+    /**
+     * Primers marcs de la pila fora d'aquesta classe i de {@link TrackedMat}.
+     */
+    private static String describe(Throwable site) {
+        if (site == null) {
+            return "(desconegut: activa matDebug)";
+        }
+        StringBuilder sb = new StringBuilder();
+        int shown = 0;
+        for (StackTraceElement e : site.getStackTrace()) {
+            String cls = e.getClassName();
+            if (cls.equals(MatTracker.class.getName()) || cls.equals(TrackedMat.class.getName())) {
+                continue;
+            }
+            if (shown > 0) {
+                sb.append(" <- ");
+            }
+            sb.append(e.getClassName().substring(e.getClassName().lastIndexOf('.') + 1))
+                    .append('.').append(e.getMethodName()).append(':').append(e.getLineNumber());
+            if (++shown == 3) {
+                break;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,400 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servidor HTTP que emet el vídeo processat en format MJPEG.
+ * <p>
+ * Cada panell publica els seus fotogrames en un canal ({@link Channel}) i el
+ * servidor els serveix a {@code /<canal>} com a {@code multipart/x-mixed-replace}
+ * (es pot obrir directament amb un navegador o amb VLC) i a
+ * {@code /<canal>.jpg} com a imatge fixa. Cada fotograma es codifica una sola
+ * vegada en JPEG, en un fil propi del canal, i els mateixos bytes s'envien a
+ * tots els clients. Si no hi ha cap client connectat no es codifica res.
+ * </p>
+ *
+ * <p>
+ * Cada client té el seu propi fil i envia sempre el fotograma més recent: un
+ * client lent se salta els fotogrames intermedis sense afectar els altres ni
+ * la captura. Amb el paràmetre {@code ?fps=N} un client pot limitar la
+ * freqüència que rep. Es configura amb les claus {@code streamPort} (0 per
+ * desactivar-lo), {@code streamQuality} i {@code streamMaxClients} de
+ * data/preferencias.txt.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class MjpegStreamServer {
+
+    private static final String BOUNDARY = "frame";
+    private static MjpegStreamServer shared;
+
+    private final HttpServer server;
+    private final ExecutorService clientThreads;
+    private final Semaphore clientSlots;
+    private final int quality;
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    /**
+     * Fotograma ja codificat, compartit entre tots els clients.
+     */
+    private static class Frame {
+        final long sequence;
+        final byte[] jpeg;
+
+        Frame(long sequence, byte[] jpeg) {
+            this.sequence = sequence;
+            this.jpeg = jpeg;
+        }
+    }
+
+    /**
+     * Canal de vídeo d'un panell.
+     */
+    public class Channel {
+        private final String name;
+        private final ExecutorService encoder;
+        private final AtomicBoolean encoding = new AtomicBoolean(); // Qui el té pot fer servir buffer
+        private final Mat buffer = new Mat();
+        private volatile boolean closed;
+        private final AtomicInteger clients = new AtomicInteger();
+        private final AtomicLong clientDrops = new AtomicLong();
+        // Els clients poden ser fils virtuals: s'espera amb un ReentrantLock i no amb wait(),
+        // que en Java 21 deixaria el fil portador bloquejat mentre el client espera
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition newFrame = lock.newCondition();
+        private long sequence = 0; // Protegit per lock
+        private Frame latest = null; // Protegit per lock
+
+        private Channel(String name) {
+            this.name = name;
+            this.encoder = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "mjpeg-" + name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        /**
+         * Publica un fotograma sense bloquejar. Si encara s'està codificant
+         * l'anterior, o no hi ha cap client, es descarta.
+         *
+         * @param frame Fotograma en color (BGR). Es copia.
+         */
+        public void publish(Mat frame) {
+            if (closed || clients.get() == 0 || frame.empty() || !encoding.compareAndSet(false, true)) {
+                return;
+            }
+            frame.copyTo(buffer);
+            try {
+                encoder.execute(this::encode);
+            } catch (RejectedExecutionException e) {
+                // S'ha tancat el canal mentre es publicava
+                encoding.set(false);
+                releaseBuffer();
+            }
+        }
+
+        private void encode() {
+            MatOfByte encoded = new MatOfByte();
+            MatOfInt params = ImageFiles.encodeParams(ImageFiles.Format.JPEG, quality);
+            try {
+                if (Imgcodecs.imencode(".jpg", buffer, encoded, params)) {
+                    byte[] jpeg = encoded.toArray();
+                    lock.lock();
+                    try {
+                        latest = new Frame(++sequence, jpeg);
+                        newFrame.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } finally {
+                encoded.release();
+                params.release();
+                encoding.set(false);
+                if (closed) {
+                    releaseBuffer();
+                }
+            }
+        }
+
+        public int getClients() {
+            return clients.get();
+        }
+
+        /**
+         * @return Fotogrames que els clients lents s'han saltat, en total.
+         */
+        public long getClientDrops() {
+            return clientDrops.get();
+        }
+
+        /**
+         * Espera un fotograma més nou que l'indicat.
+         *
+         * @return El fotograma, o {@code null} si no n'ha arribat cap a temps.
+         */
+        private Frame awaitAfter(long sequence, long timeoutMillis) throws InterruptedException {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            lock.lock();
+            try {
+                while (running && (latest == null || latest.sequence <= sequence)) {
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    remaining = newFrame.awaitNanos(remaining);
+                }
+                return running ? latest : null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Frame getLatest() {
+            lock.lock();
+            try {
+                return latest;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void wakeUp() {
+            lock.lock();
+            try {
+                newFrame.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void stream(HttpExchange exchange) throws IOException {
+            double fps = parseFps(exchange.getRequestURI().getQuery());
+            long minIntervalNanos = fps > 0 ? (long) (1e9 / fps) : 0;
+
+            exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache, no-store");
+            exchange.sendResponseHeaders(200, 0);
+            clients.incrementAndGet();
+            try (OutputStream out = exchange.getResponseBody()) {
+                long sent = 0;
+                long lastSent = 0;
+                while (running) {
+                    if (minIntervalNanos > 0) {
+                        long wait = lastSent + minIntervalNanos - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        }
+                    }
+                    Frame frame = awaitAfter(sent, 5000);
+                    if (frame == null) {
+                        continue;
+                    }
+                    if (sent > 0 && frame.sequence > sent + 1) {
+                        clientDrops.addAndGet(frame.sequence - sent - 1); // El client anava endarrerit
+                    }
+                    out.write(("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+                            + frame.jpeg.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(frame.jpeg);
+                    out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    sent = frame.sequence;
+                    lastSent = System.nanoTime();
+                }
+            } catch (IOException e) {
+                // El client s'ha desconnectat
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                clients.decrementAndGet();
+            }
+        }
+
+        private void snapshot(HttpExchange exchange) throws IOException {
+            Frame frame = getLatest();
+            if (frame == null) {
+                // Encara no s'ha codificat res: es demana un fotograma i s'espera un moment
+                clients.incrementAndGet();
+                try {
+                    frame = awaitAfter(0, 2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    clients.decrementAndGet();
+                }
+            }
+            if (frame == null) {
+                sendText(exchange, 503, "Encara no hi ha cap fotograma");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, frame.jpeg.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(frame.jpeg);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            encoder.shutdown();
+            wakeUp();
+            releaseBuffer();
+        }
+
+        /**
+         * Allibera el buffer quan ja no el fa servir ningú. Si s'està
+         * codificant, ho farà qui acabi la codificació.
+         */
+        private void releaseBuffer() {
+            // La marca ja no es torna a deixar: cap publish pot tornar a copiar-hi
+            if (encoding.compareAndSet(false, true)) {
+                buffer.release();
+            }
+        }
+    }
+
+    /**
+     * Retorna el servidor compartit per tots els panells, creant-lo la primera
+     * vegada.
+     *
+     * @return El servidor, o {@code null} si està desactivat o no s'ha pogut obrir el port.
+     */
+    public static synchronized MjpegStreamServer shared() {
+        if (shared == null) {
+            int port = (int) Preferences.getDouble("streamPort", 0);
+            if (port <= 0) {
+                return null;
+            }
+            try {
+                shared = new MjpegStreamServer(port,
+                        (int) Preferences.getDouble("streamQuality", 80),
+                        (int) Preferences.getDouble("streamMaxClients", 8));
+            } catch (IOException e) {
+                System.err.println("No s'ha pogut obrir el servidor MJPEG al port " + port + ": " + e.getMessage());
+                return null;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Crea i engega un servidor.
+     *
+     * @param port Port TCP.
+     * @param quality Qualitat JPEG (1-100).
+     * @param maxClients Nombre màxim de clients connectats alhora.
+     * @throws IOException Si no es pot obrir el port.
+     */
+    public MjpegStreamServer(int port, int quality, int maxClients) throws IOException {
+        this.quality = quality;
+        this.clientSlots = new Semaphore(Math.max(1, maxClients));
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        // Cada client passa gairebé tot el temps esperant fotogrames o escrivint al socket
+        this.clientThreads = StreamExecutors.newIoExecutor("mjpeg-client");
+        server.setExecutor(clientThreads);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Retorna un canal, creant-lo si no existeix.
+     *
+     * @param name Nom del canal, que és també el camí de l'URL.
+     * @return El canal.
+     */
+    public Channel channel(String name) {
+        return channels.computeIfAbsent(name, Channel::new);
+    }
+
+    /**
+     * Atura el servidor i desconnecta tots els clients.
+     */
+    public void stop() {
+        running = false;
+        for (Channel channel : channels.values()) {
+            channel.close();
+        }
+        server.stop(0);
+        clientThreads.shutdownNow();
+        synchronized (MjpegStreamServer.class) {
+            if (shared == this) {
+                shared = null;
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().substring(1);
+            boolean snapshot = path.endsWith(".jpg");
+            Channel channel = channels.get(snapshot ? path.substring(0, path.length() - 4) : path);
+            if (channel == null) {
+                sendText(exchange, 404, "Canals disponibles: " + channels.keySet());
+                return;
+            }
+            if (!clientSlots.tryAcquire()) {
+                sendText(exchange, 503, "Massa clients connectats");
+                return;
+            }
+            try {
+                if (snapshot) {
+                    channel.snapshot(exchange);
+                } else {
+                    channel.stream(exchange);
+                }
+            } finally {
+                clientSlots.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static double parseFps(String query) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("fps=")) {
+                    try {
+                        return Double.parseDouble(param.substring(4));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.BackgroundSubtractorMOG2;
+import org.opencv.video.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Etapa prèvia i barata de detecció de moviment.
+ * <p>
+ * Cada fotograma es redueix a una imatge en grisos petita (160 píxels d'ample
+ * per defecte) i es compara amb el fotograma anterior per diferència absoluta,
+ * o bé amb un model de fons MOG2. El resultat és una puntuació (la fracció de
+ * píxels que han canviat) i les regions en moviment, en coordenades del
+ * fotograma original. Les etapes cares (detecció de cares, OCR, seguiment) ho
+ * consulten per saltar-se els fotogrames estàtics o limitar-se a les regions
+ * que es mouen. Per a una zona concreta (per exemple, la ROI d'un objecte
+ * petit, que no arriba al llindar de tot el fotograma) hi ha
+ * {@link #isMovingIn(Rect)}.
+ * </p>
+ *
+ * <p>
+ * Un cop s'atura el moviment, l'estat es manté actiu uns quants fotogrames
+ * ({@code motionHoldFrames}) perquè les etapes posteriors vegin l'escena ja
+ * quieta. Es configura amb les claus {@code motionMethod} ({@code diff} o
+ * {@code mog2}), {@code motionThreshold} i {@code motionHoldFrames} de
+ * data/preferencias.txt. No es pot fer servir des de diversos fils alhora.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class MotionDetector {
+
+    /**
+     * Mètode de detecció.
+     */
+    public enum Method {
+        /** Diferència amb el fotograma anterior. */
+        DIFF,
+        /** Model de fons adaptatiu MOG2 (més robust a canvis de llum lents). */
+        MOG2
+    }
+
+    /**
+     * Resultat de la detecció per a un fotograma.
+     */
+    public static class Result {
+        private final double score;
+        private final Rect[] regions;
+        private final boolean moving;
+
+        Result(double score, Rect[] regions, boolean moving) {
+            this.score = score;
+            this.regions = regions;
+            this.moving = moving;
+        }
+
+        /**
+         * @return Fracció (0-1) dels píxels que han canviat.
+         */
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * @return Regions en moviment, en coordenades del fotograma original.
+         */
+        public Rect[] getRegions() {
+            return regions;
+        }
+
+        /**
+         * @return {@code true} si hi ha moviment o n'hi ha hagut fa poc.
+         */
+        public boolean isMoving() {
+            return moving;
+        }
+    }
+
+    private static final int DIFF_THRESHOLD = 25; // Diferència d'intensitat mínima per considerar un píxel canviat
+    private static final double MIN_REGION_FRACTION = 0.002; // Àrea mínima d'una regió respecte de la imatge
+
+    private final Method method;
+    private final int analysisWidth;
+    private final double threshold;
+    private final int holdFrames;
+    private final List<Consumer<Result>> listeners = new CopyOnWriteArrayList<>();
+    private BackgroundSubtractorMOG2 subtractor;
+
+    private int stillFrames = Integer.MAX_VALUE / 2; // Fotogrames seguits sense moviment
+    private Result last = new Result(0, new Rect[0], true);
+    private double lastScale = 1.0; // Escala del fotograma original a la màscara
+    private boolean maskValid = false; // La màscara correspon a l'últim fotograma
+
+    // Matrius reutilitzades entre fotogrames
+    private final Mat small = new Mat();
+    private final Mat gray = new Mat();
+    private final Mat previous = new Mat();
+    private final Mat mask = new Mat();
+    private final Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3, 3));
+
+    /**
+     * Crea un detector amb la configuració de data/preferencias.txt.
+     */
+    public MotionDetector() {
+        this("mog2".equalsIgnoreCase(Preferences.get("motionMethod", "diff")) ? Method.MOG2 : Method.DIFF,
+                160,
+                Preferences.getDouble("motionThreshold", 0.002),
+                (int) Preferences.getDouble("motionHoldFrames", 15));
+    }
+
+    /**
+     * Crea un detector.
+     *
+     * @param method Mètode de detecció.
+     * @param analysisWidth Amplada a què es redueix el fotograma per analitzar-lo.
+     * @param threshold Puntuació mínima (fracció de píxels canviats) per considerar que hi ha moviment.
+     * @param holdFrames Fotogrames que es manté l'estat de moviment després que s'aturi.
+     */
+    public MotionDetector(Method method, int analysisWidth, double threshold, int holdFrames) {
+        this.method = method;
+        this.analysisWidth = Math.max(16, analysisWidth);
+        this.threshold = threshold;
+        this.holdFrames = Math.max(0, holdFrames);
+        if (method == Method.MOG2) {
+            subtractor = Video.createBackgroundSubtractorMOG2(200, 16, false);
+        }
+    }
+
+    /**
+     * Afegeix un subscriptor que rep el resultat de cada fotograma analitzat.
+     *
+     * @param listener El subscriptor.
+     */
+    public void addListener(Consumer<Result> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Result> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Analitza un fotograma i notifica els subscriptors.
+     *
+     * @param frame Fotograma en color (BGR) a resolució original.
+     * @return El resultat de la detecció.
+     */
+    public Result update(Mat frame) {
+        double scale = (double) analysisWidth / frame.cols();
+        lastScale = scale;
+        Imgproc.resize(frame, small, new Size(analysisWidth, Math.max(1, Math.round(frame.rows() * scale))),
+                0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.GaussianBlur(gray, gray, new Size(5, 5), 0); // Elimina el soroll del sensor
+
+        if (method == Method.MOG2) {
+            subtractor.apply(gray, mask);
+        } else {
+            if (previous.empty() || previous.size().width != gray.size().width
+                    || previous.size().height != gray.size().height) {
+                gray.copyTo(previous);
+                maskValid = false;
+                last = new Result(0, new Rect[0], true); // Primer fotograma: no se sap si hi ha moviment
+                notifyListeners(last);
+                return last;
+            }
+            Core.absdiff(gray, previous, mask);
+            gray.copyTo(previous);
+            Imgproc.threshold(mask, mask, DIFF_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        }
+        Imgproc.dilate(mask, mask, kernel, new Point(-1, -1), 2);
+        maskValid = true;
+
+        double score = (double) Core.countNonZero(mask) / mask.total();
+        Rect[] regions = score > 0 ? findRegions(1.0 / scale) : new Rect[0];
+        stillFrames = score >= threshold ? 0 : stillFrames + 1;
+
+        last = new Result(score, regions, stillFrames <= holdFrames);
+        notifyListeners(last);
+        return last;
+    }
+
+    /**
+     * Indica si hi ha hagut moviment dins d'una zona a l'últim fotograma
+     * analitzat. La puntuació es calcula només sobre la zona, de manera que un
+     * objecte petit que es mou es detecta encara que el fotograma sencer no
+     * arribi al llindar.
+     *
+     * @param region Zona en coordenades del fotograma original.
+     * @return {@code true} si la fracció de píxels canviats a la zona supera el
+     * llindar, o si encara no hi ha cap fotograma de referència.
+     */
+    public boolean isMovingIn(Rect region) {
+        if (!maskValid) {
+            return true; // Sense referència no es pot saber: millor no saltar-se res
+        }
+        int x0 = Math.max(0, (int) Math.floor(region.x * lastScale));
+        int y0 = Math.max(0, (int) Math.floor(region.y * lastScale));
+        int x1 = Math.min(mask.cols(), (int) Math.ceil((region.x + region.width) * lastScale));
+        int y1 = Math.min(mask.rows(), (int) Math.ceil((region.y + region.height) * lastScale));
+        if (x1 <= x0 || y1 <= y0) {
+            return false;
+        }
+        Mat zone = mask.submat(y0, y1, x0, x1);
+        double score = (double) Core.countNonZero(zone) / zone.total();
+        zone.release();
+        return score >= threshold;
+    }
+
+    /**
+     * @return L'últim resultat calculat.
+     */
+    public Result getLast() {
+        return last;
+    }
+
+    /**
+     * Allibera les matrius internes i el model de fons.
+     */
+    public void release() {
+        small.release();
+        gray.release();
+        previous.release();
+        mask.release();
+        kernel.release();
+        if (subtractor != null) {
+            // L'enllaç de Java no té release(): es buida el model i l'objecte natiu s'allibera amb el GC
+            subtractor.clear();
+            subtractor = null;
+        }
+    }
+
+    private Rect[] findRegions(double toFrame) {
+        List<MatOfPoint> contours = new ArrayList<>();
+        Mat hierarchy = new Mat();
+        try (MatPool.PooledMat work = MatPool.acquire(mask.rows(), mask.cols(), mask.type())) {
+            mask.copyTo(work); // findContours pot modificar la imatge d'entrada
+            Imgproc.findContours(work, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        }
+        hierarchy.release();
+
+        double minArea = MIN_REGION_FRACTION * mask.total();
+        List<Rect> regions = new ArrayList<>();
+        for (MatOfPoint contour : contours) {
+            Rect r = Imgproc.boundingRect(contour);
+            contour.release();
+            if (r.area() < minArea) {
+                continue;
+            }
+            regions.add(new Rect((int) Math.floor(r.x * toFrame), (int) Math.floor(r.y * toFrame),
+                    (int) Math.ceil(r.width * toFrame), (int) Math.ceil(r.height * toFrame)));
+        }
+        return regions.toArray(new Rect[0]);
+    }
+
+    private void notifyListeners(Result result) {
+        for (Consumer<Result> listener : listeners) {
+            listener.accept(result);
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package com.mycompany.dibuixets;
 
 import com.mycompany.dibuixets.dll.Constants;
-import static com.mycompany.dibuixets.dll.Preferences.getOpenCVPath;
+import com.mycompany.dibuixets.dll.NativeLoader;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Rect;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
@@ -16,6 +17,7 @@ import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.io.File;
 
 /**
  * Classe per al seguiment d'objectes utilitzant la càmera i OpenCV.
@@ -29,16 +31,19 @@ import java.awt.image.BufferedImage;
  * @since 2025-02-13
  */
 public class ObjectTracking extends JPanel {
-    static { System.load(getOpenCVPath()); } // Carrega la llibreria OpenCV
+    static { NativeLoader.load(); } // Carrega la llibreria OpenCV
 
     private Rect roi = null; // Regió d'interès (ROI) per al seguiment
     private Point startPoint = null; // Punt inicial per seleccionar la ROI
     private Point endPoint = null; // Punt final per seleccionar la ROI
     private Mat frame = new Mat(); // Matriu per emmagatzemar el fotograma actual
-    private boolean running = true; // Controla si l'aplicació està en execució
-    private Tracker tracker = null; // Tracker per al seguiment d'objectes
-    private boolean trackingActive = false; // Indica si el seguiment està actiu
+    private final PanelLifecycle lifecycle = new PanelLifecycle("ObjectTracking"); // Fil de captura i recursos
+    private volatile Tracker tracker = null; // Tracker per al seguiment d'objectes
+    private volatile boolean trackingActive = false; // Indica si el seguiment està actiu
     private VideoCapture videoCapture; // Captura de vídeo de la càmera
+    private final PreRollBuffer preRoll = new PreRollBuffer(new File("videos/preroll")); // Es desa quan es perd l'objecte
+    private final PipelineMetrics metrics = new PipelineMetrics("ObjectTracking"); // Temps de cada etapa
+    private final MotionDetector motionDetector = new MotionDetector(); // Si l'escena no es mou, l'objecte tampoc
 
     /**
      * Constructor que inicialitza la càmera, configura els listeners per al seguiment d'objectes i comença a capturar el vídeo.
@@ -48,7 +53,10 @@ public class ObjectTracking extends JPanel {
      * </p>
      */
     public ObjectTracking() {
-        videoCapture = new VideoCapture(0); // Inicialitza la càmera
+        videoCapture = lifecycle.camera(ResourceWarmup.takeCamera()); // Inicialitza la càmera (o agafa la que ja s'ha obert)
+        lifecycle.onClose(motionDetector::release);
+        lifecycle.onClose(preRoll::close);
+        lifecycle.onClose(metrics::unregister);
 
         if (!videoCapture.isOpened()) {
             System.out.println("Error: No es pot obrir la càmera");
@@ -83,31 +91,43 @@ public class ObjectTracking extends JPanel {
         });
 
         // Fil per llegir els fotogrames de la càmera
-        new Thread(() -> {
-            while (running) {
+        lifecycle.start("captura", () -> {
+            while (lifecycle.awaitRunning()) {
+                long t = metrics.start();
                 if (!videoCapture.read(frame)) {
                     break; // Si no es pot llegir el fotograma, surt del bucle
                 }
+                t = metrics.stop("captura", t);
 
-                if (trackingActive && roi != null && tracker != null) {
+                preRoll.offer(frame);
+
+                // Si no es mou res al voltant de la ROI, l'objecte tampoc: no cal actualitzar el tracker.
+                // Es mira la zona i no tot el fotograma, perquè un objecte petit no arriba al llindar global
+                motionDetector.update(frame);
+                if (trackingActive && roi != null && tracker != null && motionDetector.isMovingIn(searchArea(roi))) {
                     boolean success = tracker.update(frame, roi); // Actualitza el tracker
                     if (!success) {
                         System.out.println("Error en el seguiment de l'objecte");
+                        preRoll.trigger("seguiment-perdut"); // Desa els segons abans de perdre l'objecte
                         trackingActive = false; // Desactiva el seguiment si hi ha un error
                     }
+                    metrics.stop("seguiment", t);
                 }
 
+                metrics.frameReady();
                 repaint(); // Repinta el panell per mostrar el fotograma actual
 
-                try {
-                    Thread.sleep(30); // Espera 30 ms per a una actualització suau
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+                Thread.sleep(30); // Espera 30 ms per a una actualització suau (en tancar s'interromp)
             }
+        });
+    }
 
-            videoCapture.release(); // Allibera la càmera quan el bucle acaba
-        }).start();
+    /**
+     * Zona on es busca moviment: la ROI ampliada mitja mida per cada costat,
+     * perquè també es vegi l'objecte quan comença a sortir-ne.
+     */
+    private static Rect searchArea(Rect roi) {
+        return new Rect(roi.x - roi.width / 2, roi.y - roi.height / 2, roi.width * 2, roi.height * 2);
     }
 
     /**
@@ -121,16 +141,21 @@ public class ObjectTracking extends JPanel {
      */
     @Override
     protected void paintComponent(Graphics g) {
+        long t = metrics.start();
         super.paintComponent(g);
         if (frame != null && !frame.empty()) {
             // Converteix el fotograma a una imatge i la dibuixa al panell
             Image img = new ImageIcon(Mat2BufferedImage(frame)).getImage();
+            t = metrics.stop("conversió", t);
             g.drawImage(img, 0, 0, getWidth(), getHeight(), null);
             if (trackingActive && roi != null) {
                 g.setColor(Color.GREEN); // Dibuixa un rectangle verd al voltant de la ROI
                 g.drawRect(roi.x, roi.y, roi.width, roi.height);
             }
         }
+        metrics.stop("pintat", t);
+        metrics.drawOverlay((Graphics2D) g); // FPS i latències, si està activat a les preferències
+        metrics.framePainted();
     }
 
     /**
@@ -142,18 +167,16 @@ public class ObjectTracking extends JPanel {
      * @param mat La matriu OpenCV que es vol convertir en una imatge.
      * @return La imatge convertida de tipus BufferedImage.
      */
-    public BufferedImage Mat2BufferedImage(Mat mat) {
+    public static BufferedImage Mat2BufferedImage(Mat mat) {
         int width = mat.width();
         int height = mat.height();
-        Mat matRGB = new Mat();
-
-        Imgproc.cvtColor(mat, matRGB, Imgproc.COLOR_BGR2RGB);
-
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-        byte[] data = new byte[width * height * (int) matRGB.elemSize()];
-        matRGB.get(0, 0, data);
-        image.getRaster().setDataElements(0, 0, width, height, data);
-
+        try (MatPool.PooledMat matRGB = MatPool.acquire(height, width, CvType.CV_8UC3)) {
+            Imgproc.cvtColor(mat, matRGB, Imgproc.COLOR_BGR2RGB);
+            byte[] data = new byte[width * height * (int) matRGB.elemSize()];
+            matRGB.get(0, 0, data);
+            image.getRaster().setDataElements(0, 0, width, height, data);
+        }
         return image;
     }
 
@@ -164,7 +187,7 @@ public class ObjectTracking extends JPanel {
      * </p>
      */
     public void stop() {
-        running = false;
+        lifecycle.close(); // Espera que acabi el fil abans d'alliberar la càmera
     }
 
     /*
@@ -1,7 +1,7 @@
 package com.mycompany.dibuixets;
 
 import com.mycompany.dibuixets.dll.Constants;
-import static com.mycompany.dibuixets.dll.Preferences.getOpenCVPath;
+import com.mycompany.dibuixets.dll.NativeLoader;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import javax.swing.*;
@@ -10,10 +10,17 @@ import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import javax.imageio.ImageIO;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
 import org.opencv.core.Scalar;
 
 /**
@@ -24,6 +31,11 @@ import org.opencv.core.Scalar;
  * cargada, así como guardar los cambios realizados.
  *
  * <p>
+ * Las formas no se graban directamente en los píxeles: se guardan como
+ * anotaciones vectoriales ({@link AnnotationLayer}) que se pueden seleccionar,
+ * mover, borrar y guardar junto a la imagen.</p>
+ *
+ * <p>
  * La clase también implementa un panel adicional que se puede hacer visible o
  * invisible según lo desee el usuario.</p>
  *
@@ -32,7 +44,7 @@ import org.opencv.core.Scalar;
 public class OpenCVDrawingApp2 extends JPanel {
 
     private Mat image;  // Imagen cargada para realizar dibujos sobre ella
-    private Mat originalImage; // 📌 Imatge original per restaurar zones esborrades
+    private Mat originalImage; // 📌 Imatge original sense anotacions
     private BufferedImage bufferedImage;  // Imagen en formato BufferedImage para mostrar en la interfaz gráfica
     private Point lastPoint;  // Última posición del ratón durante el dibujo
     private Color currentColor = Color.RED;  // Color actual para el dibujo
@@ -41,11 +53,23 @@ public class OpenCVDrawingApp2 extends JPanel {
     private boolean isFreeDrawing = false;  // Bandera para saber si estamos dibujando libremente
     private String currentShape = "LINE";  // Forma seleccionada para el dibujo actual
 
-    private Stack<Mat> undoStack = new Stack<>();  // Pila para deshacer cambios
-    private Stack<Mat> redoStack = new Stack<>();  // Pila para rehacer cambios
+    private final StrokeEngine strokeEngine = new StrokeEngine();  // Motor de trazos para el dibujo libre
+    private Timer strokeTimer;  // Tic de pantalla que rasteriza los trazos pendientes
+
+    private AnnotationLayer layer;  // Formas dibujadas como objetos vectoriales (con deshacer y rehacer)
+    private File sourceFile;  // Fichero de la imagen cargada, junto al que se guardan las anotaciones
+    private Annotation selected;  // Anotación seleccionada con la herramienta de selección
+    private double movedX, movedY;  // Desplazamiento acumulado de la anotación seleccionada
 
     private JPanel myPanel;  // Panel adicional que se puede hacer visible o invisible
 
+    private JProgressBar progressBar;  // Indicador de progreso mientras se carga o se guarda una imagen
+    private boolean loading = false;  // Bandera para bloquear el dibujo mientras se carga una imagen
+    private boolean previewing = false;  // Indica si se está mostrando la vista previa de baja resolución
+
+    // Tamaño a partir del cual se muestra primero una vista previa reducida (en bytes)
+    private static final long PREVIEW_THRESHOLD = 1024 * 1024;
+
     /**
      * Constructor de la clase {@code OpenCVDrawingApp2}. Inicializa la imagen,
      * el panel y las configuraciones de los eventos del ratón.
@@ -54,14 +78,20 @@ public class OpenCVDrawingApp2 extends JPanel {
      */
     public OpenCVDrawingApp2(String imagePath) {
         // Inicialización de la imagen y demás
-        System.load(getOpenCVPath());
-        image = Imgcodecs.imread(imagePath);
-        originalImage = image.clone();  // ✅ Ahora se inicializa correctamente
-        resizeImage();
-        bufferedImage = matToBufferedImage(image);
+        NativeLoader.load();
 
-        setPreferredSize(new Dimension(image.width(), image.height()));
-        undoStack.push(image.clone());
+        // Solo se lee la cabecera para conocer el tamaño; los píxeles se decodifican en segundo plano
+        Dimension size = ImageFiles.readDimensions(new File(imagePath));
+        if (size != null) {
+            setPreferredSize(ImageFiles.fitToDisplay(size.width, size.height));
+        }
+
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+
+        // Los trazos libres se dibujan por lotes a ~60 fps, no en cada evento del ratón
+        strokeTimer = new Timer(16, e -> flushStroke(false));
 
         // Crear el panel adicional que estará oculto por defecto
         myPanel = new JPanel();
@@ -73,15 +103,36 @@ public class OpenCVDrawingApp2 extends JPanel {
         addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
+                if (image == null || loading) {
+                    return;
+                }
                 lastPoint = e.getPoint();
-                undoStack.push(image.clone());
+                if (isFreeDrawing) {
+                    strokeEngine.beginStroke(lastPoint.x, lastPoint.y, currentColor(), strokeWidth);
+                    strokeTimer.start();
+                } else if (isErasing) {
+                    erase(lastPoint);
+                } else if ("SELECT".equals(currentShape)) {
+                    selected = layer.hitTest(lastPoint.x, lastPoint.y, 4);
+                    movedX = 0;
+                    movedY = 0;
+                }
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
-                if (!isFreeDrawing && !isErasing && lastPoint != null) {
+                if (isFreeDrawing && lastPoint != null && !loading) {
+                    strokeEngine.addSample(e.getX(), e.getY());
+                    flushStroke(true);
+                    strokeTimer.stop();
+                    layer.add(new Annotation(Annotation.Type.FREEHAND, strokeEngine.getStroke(), currentColor(), strokeWidth));
+                } else if ("SELECT".equals(currentShape)) {
+                    if (selected != null) {
+                        layer.moved(selected, movedX, movedY);
+                        selected = null;
+                    }
+                } else if (!isFreeDrawing && !isErasing && lastPoint != null && !loading) {
                     drawShape(e.getPoint(), true);
-                    bufferedImage = matToBufferedImage(image);
                     repaint();
                 }
             }
@@ -90,46 +141,181 @@ public class OpenCVDrawingApp2 extends JPanel {
         addMouseMotionListener(new MouseMotionAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (lastPoint != null) {
+                if (lastPoint != null && !loading) {
                     if (isFreeDrawing) {
-                        drawFreeDraw(e.getPoint());
+                        // Solo se guarda la muestra; el temporizador la dibuja
+                        strokeEngine.addSample(e.getX(), e.getY());
+                        return;
                     } else if (isErasing) {
                         erase(e.getPoint());
+                    } else if ("SELECT".equals(currentShape)) {
+                        moveSelected(e.getPoint());
                     } else {
                         drawShape(e.getPoint(), false);
                     }
-                    bufferedImage = matToBufferedImage(image);
                     repaint();
                 }
             }
         });
+
+        loadImageAsync(new File(imagePath));
     }
 
     /**
      * Redimensiona la imagen para ajustarse a un tamaño máximo de 800x800
      * píxeles mientras mantiene la proporción original de la imagen.
+     *
+     * @param source La imagen a redimensionar.
+     * @return La imagen redimensionada, o la misma imagen si ya cabe.
+     */
+    private static Mat resizeImage(Mat source) {
+        Dimension size = ImageFiles.fitToDisplay(source.width(), source.height());
+        if (size.width == source.width() && size.height == source.height()) {
+            return source;
+        }
+        Mat resizedImage = new Mat();
+        Imgproc.resize(source, resizedImage, new org.opencv.core.Size(size.width, size.height),
+                0, 0, Imgproc.INTER_AREA);
+        source.release();
+        return resizedImage;
+    }
+
+    /**
+     * Carga una imagen en segundo plano sin bloquear la interfaz gráfica.
+     * <p>
+     * La imagen se decodifica una sola vez. Si el fichero es grande, antes se
+     * muestra una vista previa decodificada a 1/4 de resolución, que es mucho
+     * más rápida de obtener.</p>
+     *
+     * @param file El fichero de imagen a cargar.
      */
-    private void resizeImage() {
-        int maxWidth = 800;
-        int maxHeight = 800;
-        int width = image.width();
-        int height = image.height();
-
-        if (width > maxWidth || height > maxHeight) {
-            double aspectRatio = (double) width / height;
-            int newWidth = maxWidth;
-            int newHeight = (int) (newWidth / aspectRatio);
-            if (newHeight > maxHeight) {
-                newHeight = maxHeight;
-                newWidth = (int) (newHeight * aspectRatio);
+    private void loadImageAsync(File file) {
+        String path = file.getAbsolutePath();
+        boolean withPreview = file.length() > PREVIEW_THRESHOLD;
+        loading = true;
+        setBusy(true, "Cargando " + file.getName() + "...");
+
+        new SwingWorker<Mat, BufferedImage>() {
+            private BufferedImage loadedBuffer;
+            private AnnotationLayer loadedLayer;
+
+            @Override
+            protected Mat doInBackground() {
+                if (withPreview) {
+                    Mat preview = Imgcodecs.imread(path, Imgcodecs.IMREAD_REDUCED_COLOR_4);
+                    if (!preview.empty()) {
+                        publish(matToBufferedImage(preview));
+                    }
+                    preview.release();
+                }
+                Mat loaded = Imgcodecs.imread(path);
+                if (loaded.empty()) {
+                    return null;
+                }
+                loaded = resizeImage(loaded);
+
+                // Si hay anotaciones guardadas junto a la imagen, se recuperan
+                File sidecar = AnnotationLayer.sidecarFor(file);
+                if (sidecar.isFile()) {
+                    try {
+                        loadedLayer = AnnotationLayer.read(sidecar, loaded.width(), loaded.height());
+                    } catch (IOException | RuntimeException e) {
+                        // Unas anotaciones dañadas no deben impedir abrir la imagen: se empieza con una capa vacía
+                        e.printStackTrace();
+                        loadedLayer = null;
+                    }
+                }
+                Mat composed = loaded.clone();
+                if (loadedLayer != null) {
+                    loadedLayer.rasterize(composed);
+                }
+                loadedBuffer = matToBufferedImage(composed);
+                composed.release();
+                return loaded;
             }
 
-            Mat resizedImage = new Mat();
-            Imgproc.resize(image, resizedImage, new org.opencv.core.Size(newWidth, newHeight));
-            image = resizedImage;
-            bufferedImage = matToBufferedImage(image);
-            setPreferredSize(new Dimension(newWidth, newHeight));
+            @Override
+            protected void process(List<BufferedImage> chunks) {
+                if (image == null || previewing) {
+                    bufferedImage = chunks.get(chunks.size() - 1);
+                    previewing = true;
+                    repaint();
+                }
+            }
+
+            @Override
+            protected void done() {
+                loading = false;
+                previewing = false;
+                setBusy(false, null);
+                Mat newImage = null;
+                try {
+                    newImage = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+                if (newImage == null) {
+                    if (image != null) {
+                        bufferedImage = matToBufferedImage(image);
+                        repaint();
+                    }
+                    JOptionPane.showMessageDialog(OpenCVDrawingApp2.this, "No se pudo cargar la imagen.", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                sourceFile = file;
+                setImage(newImage, loadedBuffer, loadedLayer);
+            }
+        }.execute();
+    }
+
+    /**
+     * Sustituye la imagen actual por una nueva y reinicia el historial.
+     *
+     * @param newImage La nueva imagen, ya redimensionada.
+     * @param newBuffer La imagen con las anotaciones, ya convertida a {@code BufferedImage}.
+     * @param newLayer Las anotaciones guardadas de la imagen, o {@code null}.
+     */
+    private void setImage(Mat newImage, BufferedImage newBuffer, AnnotationLayer newLayer) {
+        if (image != null) {
+            image.release();
+            originalImage.release();
         }
+        originalImage = newImage;
+        image = originalImage.clone();
+        layer = newLayer != null ? newLayer : new AnnotationLayer(image.width(), image.height());
+        layer.rasterize(image);
+        bufferedImage = newBuffer;
+        selected = null;
+
+        // Actualizar el tamaño preferido del panel
+        setPreferredSize(new Dimension(image.width(), image.height()));
+
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Vuelve a componer la imagen a partir de la original y las anotaciones.
+     * Se usa después de deshacer, borrar o mover una anotación.
+     */
+    private void render() {
+        image.release();
+        image = originalImage.clone();
+        layer.rasterize(image);
+        bufferedImage = matToBufferedImage(image);
+        repaint();
+    }
+
+    /**
+     * Muestra u oculta el indicador de progreso.
+     *
+     * @param busy Si hay una operación en curso.
+     * @param message El texto a mostrar en el indicador.
+     */
+    private void setBusy(boolean busy, String message) {
+        progressBar.setIndeterminate(busy);
+        progressBar.setString(message);
+        progressBar.setVisible(busy);
     }
 
     /**
@@ -137,72 +323,101 @@ public class OpenCVDrawingApp2 extends JPanel {
      * puntos sobre la imagen cargada.
      *
      * @param currentPoint El punto donde termina la figura.
-     * @param finalize Si es {@code true}, guarda el cambio en la pila de
-     * deshacer.
+     * @param finalize Si es {@code true}, la figura se añade a las anotaciones;
+     * si no, solo se muestra como vista previa mientras se arrastra.
      */
     private void drawShape(Point currentPoint, boolean finalize) {
-        image = undoStack.peek().clone();
-        Scalar color = new Scalar(currentColor.getRed(), currentColor.getGreen(), currentColor.getBlue());
-
+        Annotation.Type type;
         switch (currentShape) {
             case "CIRCLE":
-                int radius = (int) lastPoint.distance(currentPoint);
-                Imgproc.circle(image, new org.opencv.core.Point(lastPoint.x, lastPoint.y), radius, color, strokeWidth);
+                type = Annotation.Type.CIRCLE;
                 break;
             case "RECTANGLE":
-                Imgproc.rectangle(image, new org.opencv.core.Point(lastPoint.x, lastPoint.y),
-                        new org.opencv.core.Point(currentPoint.x, currentPoint.y), color, strokeWidth);
+                type = Annotation.Type.RECTANGLE;
                 break;
             case "ARROW":
-                Imgproc.arrowedLine(image, new org.opencv.core.Point(lastPoint.x, lastPoint.y),
-                        new org.opencv.core.Point(currentPoint.x, currentPoint.y), color, strokeWidth);
+                type = Annotation.Type.ARROW;
                 break;
             case "LINE":
-                Imgproc.line(image, new org.opencv.core.Point(lastPoint.x, lastPoint.y),
-                        new org.opencv.core.Point(currentPoint.x, currentPoint.y), color, strokeWidth);
+                type = Annotation.Type.LINE;
                 break;
+            default:
+                return;
         }
+        Annotation shape = new Annotation(type, Arrays.asList(
+                new org.opencv.core.Point(lastPoint.x, lastPoint.y),
+                new org.opencv.core.Point(currentPoint.x, currentPoint.y)), currentColor(), strokeWidth);
+
         if (finalize) {
-            undoStack.push(image.clone());
+            shape.draw(image, 1.0);
+            layer.add(shape);
+            bufferedImage = matToBufferedImage(image);
+        } else {
+            Mat preview = image.clone();
+            shape.draw(preview, 1.0);
+            bufferedImage = matToBufferedImage(preview);
+            preview.release();
         }
     }
 
     /**
-     * Dibuja libremente sobre la imagen cargada, sin formas predeterminadas.
+     * Mueve la anotación seleccionada siguiendo al ratón.
      *
-     * @param currentPoint El punto al que se va a dibujar.
+     * @param currentPoint La posición actual del ratón.
      */
-    private void drawFreeDraw(Point currentPoint) {
-        Scalar color = new Scalar(currentColor.getRed(), currentColor.getGreen(), currentColor.getBlue());
-        Imgproc.line(image, new org.opencv.core.Point(lastPoint.x, lastPoint.y),
-                new org.opencv.core.Point(currentPoint.x, currentPoint.y), color, strokeWidth);
+    private void moveSelected(Point currentPoint) {
+        if (selected == null) {
+            return;
+        }
+        double dx = currentPoint.x - lastPoint.x;
+        double dy = currentPoint.y - lastPoint.y;
+        selected.translate(dx, dy);
+        movedX += dx;
+        movedY += dy;
         lastPoint = currentPoint;
+        render();
+    }
+
+    /**
+     * Dibuja los segmentos pendientes del trazo libre y repinta solo la zona
+     * modificada.
+     *
+     * @param end Si es {@code true}, termina el trazo y dibuja todo lo que quede.
+     */
+    private void flushStroke(boolean end) {
+        if (image == null) {
+            return;
+        }
+        if (!end && !strokeEngine.hasPending()) {
+            return;
+        }
+        org.opencv.core.Rect dirty = end ? strokeEngine.endStroke(image) : strokeEngine.flush(image);
+        if (dirty != null) {
+            updateBufferedImage(dirty);
+            repaint(dirty.x, dirty.y, dirty.width, dirty.height);
+        }
     }
 
     /**
-     * Borra sobre la imagen cargada utilizando un círculo blanco (simulando un
-     * borrador).
+     * Devuelve el color actual en el formato que usa OpenCV para dibujar.
+     *
+     * @return El color actual como {@code Scalar}.
+     */
+    private Scalar currentColor() {
+        return new Scalar(currentColor.getRed(), currentColor.getGreen(), currentColor.getBlue());
+    }
+
+    /**
+     * Borra la anotación que hay debajo del ratón, dejando a la vista la
+     * imagen original.
      *
      * @param currentPoint El punto en el que se va a borrar.
      */
     private void erase(Point currentPoint) {
-        if (image != null && originalImage != null) {
-            Mat roi = originalImage.submat(
-                (int) Math.max(0, currentPoint.y - strokeWidth),
-                (int) Math.min(originalImage.rows(), currentPoint.y + strokeWidth),
-                (int) Math.max(0, currentPoint.x - strokeWidth),
-                (int) Math.min(originalImage.cols(), currentPoint.x + strokeWidth)
-            );
-
-            roi.copyTo(image.submat(
-                (int) Math.max(0, currentPoint.y - strokeWidth),
-                (int) Math.min(image.rows(), currentPoint.y + strokeWidth),
-                (int) Math.max(0, currentPoint.x - strokeWidth),
-                (int) Math.min(image.cols(), currentPoint.x + strokeWidth)
-            ));
-
-            bufferedImage = matToBufferedImage(image);
-            repaint();
+        Annotation hit = layer.hitTest(currentPoint.x, currentPoint.y, strokeWidth);
+        if (hit != null) {
+            layer.remove(hit);
+            render();
         }
     }
 
@@ -216,7 +431,39 @@ public class OpenCVDrawingApp2 extends JPanel {
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        g.drawImage(bufferedImage, 0, 0, this);
+        if (bufferedImage == null) {
+            return;
+        }
+        if (previewing) {
+            // La vista previa es más pequeña: se escala al tamaño final
+            Dimension size = getPreferredSize();
+            g.drawImage(bufferedImage, 0, 0, size.width, size.height, this);
+        } else {
+            g.drawImage(bufferedImage, 0, 0, this);
+        }
+    }
+
+    /**
+     * Actualiza solo una región del {@code BufferedImage} a partir de la imagen
+     * {@code Mat}, en lugar de convertir la imagen entera.
+     *
+     * @param region La zona modificada de la imagen.
+     */
+    private void updateBufferedImage(org.opencv.core.Rect region) {
+        if (bufferedImage == null || bufferedImage.getWidth() != image.width()
+                || bufferedImage.getHeight() != image.height()) {
+            bufferedImage = matToBufferedImage(image);
+            return;
+        }
+        Mat roi = image.submat(region);
+        try (TrackedMat convertedRoi = new TrackedMat()) {
+            Imgproc.cvtColor(roi, convertedRoi, Imgproc.COLOR_BGR2RGB);
+            byte[] data = new byte[region.width * region.height * (int) convertedRoi.elemSize()];
+            convertedRoi.get(0, 0, data);
+            bufferedImage.getRaster().setDataElements(region.x, region.y, region.width, region.height, data);
+        } finally {
+            roi.release();
+        }
     }
 
     /**
@@ -227,22 +474,22 @@ public class OpenCVDrawingApp2 extends JPanel {
      * @return Un objeto {@code BufferedImage} equivalente a la imagen
      * {@code Mat}.
      */
-    private BufferedImage matToBufferedImage(Mat mat) {
+    static BufferedImage matToBufferedImage(Mat mat) {
     int width = mat.width();
     int height = mat.height();
     
-    // Convertir de BGR a RGB
-    Mat convertedMat = new Mat();
-    Imgproc.cvtColor(mat, convertedMat, Imgproc.COLOR_BGR2RGB); 
-    
     // Crear BufferedImage
     BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-    byte[] data = new byte[width * height * (int) convertedMat.elemSize()];
-    convertedMat.get(0, 0, data);
-    
-    // Escribir datos en la imagen
-    image.getRaster().setDataElements(0, 0, width, height, data);
-    
+
+    // Convertir de BGR a RGB; la matriz intermedia vuelve a la reserva al acabar
+    try (MatPool.PooledMat convertedMat = MatPool.acquire(height, width, CvType.CV_8UC3)) {
+        Imgproc.cvtColor(mat, convertedMat, Imgproc.COLOR_BGR2RGB);
+        byte[] data = new byte[width * height * (int) convertedMat.elemSize()];
+        convertedMat.get(0, 0, data);
+
+        // Escribir datos en la imagen
+        image.getRaster().setDataElements(0, 0, width, height, data);
+    }
     return image;
 }
 
@@ -286,6 +533,10 @@ public class OpenCVDrawingApp2 extends JPanel {
         freeDrawButton.addActionListener(e -> setDrawingMode(panel, "", true, false));
         toolsMenu.add(freeDrawButton);
 
+        JMenuItem selectButton = new JMenuItem("Seleccionar / Mover");
+        selectButton.addActionListener(e -> setDrawingMode(panel, "SELECT", false, false));
+        toolsMenu.add(selectButton);
+
         JMenuItem eraseButton = new JMenuItem("Goma");
         eraseButton.addActionListener(e -> setDrawingMode(panel, "", false, true));
         toolsMenu.add(eraseButton);
@@ -320,6 +571,10 @@ public class OpenCVDrawingApp2 extends JPanel {
         saveButton.addActionListener(e -> panel.saveImage());
         actionsMenu.add(saveButton);
 
+        JMenuItem saveAnnotationsButton = new JMenuItem("Guardar Anotaciones");
+        saveAnnotationsButton.addActionListener(e -> panel.saveAnnotations());
+        actionsMenu.add(saveAnnotationsButton);
+
         JMenuItem loadButton = new JMenuItem("Cargar Imagen");
         loadButton.addActionListener(e -> panel.loadImage());
         actionsMenu.add(loadButton);
@@ -333,6 +588,8 @@ public class OpenCVDrawingApp2 extends JPanel {
         thicknessSlider.addChangeListener(e -> panel.strokeWidth = thicknessSlider.getValue());
         controlPanel.add(thicknessSlider);
 
+        controlPanel.add(panel.progressBar);
+
         return controlPanel;
     }
 
@@ -351,21 +608,23 @@ public class OpenCVDrawingApp2 extends JPanel {
         panel.isErasing = erase;
     }
 
+    /**
+     * Elimina todas las anotaciones (se puede deshacer).
+     */
     public void clearCanvas() {
-        image = originalImage.clone();
-        bufferedImage = matToBufferedImage(image);
-        repaint();
+        if (image == null || loading) {
+            return;
+        }
+        layer.clear();
+        render();
     }
 
     /**
      * Deshace la última acción de dibujo realizada.
      */
     private void undo() {
-        if (!undoStack.isEmpty()) {
-            redoStack.push(image.clone());
-            image = undoStack.pop();
-            bufferedImage = matToBufferedImage(image);
-            repaint();
+        if (layer != null && !loading && layer.undo()) {
+            render();
         }
     }
 
@@ -373,60 +632,123 @@ public class OpenCVDrawingApp2 extends JPanel {
      * Rehace la última acción de dibujo deshecha.
      */
     private void redo() {
-        if (!redoStack.isEmpty()) {
-            undoStack.push(image.clone());
-            image = redoStack.pop();
-            bufferedImage = matToBufferedImage(image);
-            repaint();
+        if (layer != null && !loading && layer.redo()) {
+            render();
         }
     }
 
     /**
-     * Guarda la imagen actual en el sistema de archivos en formato JPEG.
+     * Guarda las anotaciones en un fichero junto a la imagen cargada, para
+     * poder seguir editándolas la próxima vez que se abra.
+     */
+    private void saveAnnotations() {
+        if (layer == null || sourceFile == null || loading) {
+            return;
+        }
+        File sidecar = AnnotationLayer.sidecarFor(sourceFile);
+        try {
+            layer.write(sidecar);
+            JOptionPane.showMessageDialog(this, "Anotaciones guardadas en: " + sidecar.getAbsolutePath());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "No se pudieron guardar las anotaciones.", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Guarda la imagen actual en el sistema de archivos.
+     * <p>
+     * El usuario elige el formato (JPEG, PNG, WebP o BMP) y, si el formato lo
+     * permite, la calidad. Se guarda una copia de la imagen en el momento de
+     * pulsar el botón y la codificación se hace en segundo plano, de modo que se
+     * puede seguir dibujando mientras tanto.</p>
      */
     private void saveImage() {
+        if (image == null || loading) {
+            return;
+        }
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Guardar imagen");
-        fileChooser.setFileFilter(new FileNameExtensionFilter("Archivos JPEG", "jpg", "jpeg"));
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        Map<FileFilter, ImageFiles.Format> filters = new LinkedHashMap<>();
+        for (ImageFiles.Format format : ImageFiles.Format.values()) {
+            FileFilter filter = format == ImageFiles.Format.JPEG
+                    ? new FileNameExtensionFilter(format.getDescription(), "jpg", "jpeg")
+                    : new FileNameExtensionFilter(format.getDescription(), format.getExtension());
+            filters.put(filter, format);
+            fileChooser.addChoosableFileFilter(filter);
+        }
         int userChoice = fileChooser.showSaveDialog(this);
-        if (userChoice == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            Imgcodecs.imwrite(file.getAbsolutePath(), image);
+        if (userChoice != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        File file = fileChooser.getSelectedFile();
+        ImageFiles.Format format = ImageFiles.formatOf(file);
+        if (format == null) {
+            // Sin extensión conocida: se usa el formato del filtro seleccionado
+            format = filters.get(fileChooser.getFileFilter());
+            file = new File(file.getAbsolutePath() + "." + format.getExtension());
         }
+
+        int quality = 95;
+        if (format.hasQuality()) {
+            JSlider qualitySlider = new JSlider(1, 100, quality);
+            qualitySlider.setMajorTickSpacing(25);
+            qualitySlider.setPaintTicks(true);
+            qualitySlider.setPaintLabels(true);
+            int option = JOptionPane.showConfirmDialog(this, qualitySlider, "Calidad", JOptionPane.OK_CANCEL_OPTION);
+            if (option != JOptionPane.OK_OPTION) {
+                return;
+            }
+            quality = qualitySlider.getValue();
+        }
+
+        Mat snapshot = image.clone();
+        MatOfInt params = ImageFiles.encodeParams(format, quality);
+        String path = file.getAbsolutePath();
+        setBusy(true, "Guardando " + file.getName() + "...");
+
+        new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() {
+                try {
+                    return Imgcodecs.imwrite(path, snapshot, params);
+                } finally {
+                    snapshot.release();
+                    params.release();
+                }
+            }
+
+            @Override
+            protected void done() {
+                setBusy(false, null);
+                boolean saved = false;
+                try {
+                    saved = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+                if (!saved) {
+                    JOptionPane.showMessageDialog(OpenCVDrawingApp2.this, "No se pudo guardar la imagen.", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
 
+    /**
+     * Permite al usuario elegir una imagen y la carga en segundo plano.
+     */
     public void loadImage() {
+        if (loading) {
+            return;
+        }
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Selecciona una imagen");
         fileChooser.setFileFilter(new FileNameExtensionFilter("Imágenes", "jpg", "png", "bmp"));
 
         int result = fileChooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
-            File selectedFile = fileChooser.getSelectedFile();
-            Mat newImage = Imgcodecs.imread(selectedFile.getAbsolutePath());
-
-            if (newImage != null && !newImage.empty()) {
-                // Limpiar las pilas de deshacer y rehacer
-                undoStack.clear();
-                redoStack.clear();
-
-                // Asignar la nueva imagen
-                image = newImage;
-                originalImage = image.clone();
-                resizeImage();
-                bufferedImage = matToBufferedImage(image);
-
-                // Actualizar el tamaño preferido del panel
-                setPreferredSize(new Dimension(image.width(), image.height()));
-
-                // Agregar la nueva imagen a la pila de deshacer
-                undoStack.push(image.clone());
-
-                // Repintar el panel para mostrar la nueva imagen
-                repaint();
-            } else {
-                JOptionPane.showMessageDialog(this, "No se pudo cargar la imagen.", "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            loadImageAsync(fileChooser.getSelectedFile());
         }
     }
 }
@@ -0,0 +1,395 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+import java.awt.Window;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cicle de vida d'un panell: els seus fils, executors i recursos nadius.
+ * <p>
+ * Cada panell crea un {@code PanelLifecycle} i hi arrenca els fils de captura
+ * amb {@link #start(String, Worker)}. Els bucles dels fils fan
+ * {@code while (lifecycle.awaitRunning())}: mentre el panell està en pausa el
+ * fil s'espera sense gastar CPU, i quan es tanca el bucle acaba. Els recursos
+ * (la càmera, les matrius, les gravacions...) es registren amb
+ * {@link #camera}, {@link #mat} o {@link #onClose} i s'alliberen en ordre
+ * invers en tancar.
+ * </p>
+ *
+ * <p>
+ * {@link #close()} atura els executors, interromp els fils i els espera fins a
+ * {@value #JOIN_TIMEOUT_MS} ms. Els recursos només s'alliberen quan tots els
+ * fils han acabat i tots els executors s'han aturat del tot, de manera que cap
+ * fil llegeix mai d'una càmera alliberada.
+ * Si algun fil no acaba a temps es considera perdut: s'informa amb la seva pila
+ * ({@link #getLeakedThreads()}) i els recursos s'alliberen quan per fi acabi.
+ * Les matrius de la {@link MatPool} de cada fil s'alliberen quan el fil acaba.</p>
+ *
+ * <p>
+ * Quan es tanca la finestra lligada amb {@link #bindTo}, el tancament es fa amb
+ * {@link #closeInBackground()}: esperar els fils i alliberar els recursos (tancar
+ * una gravació pot trigar segons) no bloqueja el fil de Swing.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public final class PanelLifecycle {
+
+    /**
+     * Estat del panell.
+     */
+    public enum State {
+        RUNNING, PAUSED, CLOSED
+    }
+
+    /**
+     * Cos d'un fil del panell. Ha de tornar quan {@link #awaitRunning()}
+     * retorna {@code false} o quan se l'interromp.
+     */
+    @FunctionalInterface
+    public interface Worker {
+        void run() throws InterruptedException;
+    }
+
+    private static final Logger LOG = Logger.getLogger(PanelLifecycle.class.getName());
+    private static final long JOIN_TIMEOUT_MS = 2000;
+    private static final Set<Thread> LEAKED = ConcurrentHashMap.newKeySet(); // Fils de panells tancats que no han acabat
+
+    private final String name;
+    private final Object stateLock = new Object();
+    private State state = State.RUNNING; // Protegit per stateLock
+    private final List<Thread> workers = new CopyOnWriteArrayList<>();
+    private final List<ExecutorService> executors = new CopyOnWriteArrayList<>();
+    private final Deque<Runnable> cleanups = new ArrayDeque<>(); // Protegit per this
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private final AtomicInteger liveExecutors = new AtomicInteger(); // Executors que encara no han acabat
+    private final AtomicBoolean cleaned = new AtomicBoolean();
+
+    /**
+     * @param name Nom del panell, per als noms dels fils i els missatges.
+     */
+    public PanelLifecycle(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Arrenca un fil del panell. És un fil dimoni: no impedeix que l'aplicació
+     * acabi.
+     *
+     * @param threadName Nom del fil (s'hi afegeix el del panell).
+     * @param worker Cos del fil.
+     * @return El fil arrencat.
+     * @throws IllegalStateException Si el panell ja està tancat.
+     */
+    public Thread start(String threadName, Worker worker) {
+        Thread thread = new Thread(() -> {
+            try {
+                worker.run();
+            } catch (InterruptedException e) {
+                // S'ha tancat el panell mentre el fil esperava
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, "El fil " + Thread.currentThread().getName() + " ha acabat per un error", e);
+            } finally {
+                MatPool.clearCurrentThread();
+                LEAKED.remove(Thread.currentThread());
+                liveWorkers.decrementAndGet();
+                releaseIfFinished(); // L'últim fil d'un panell tancat allibera els recursos
+            }
+        }, name + "-" + threadName);
+        thread.setDaemon(true);
+        synchronized (stateLock) {
+            if (state == State.CLOSED) {
+                throw new IllegalStateException("El panell " + name + " ja està tancat");
+            }
+            liveWorkers.incrementAndGet();
+            workers.add(thread);
+        }
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Crea un executor propi del panell, que s'atura en tancar-lo.
+     *
+     * @param threadName Nom dels fils.
+     * @param threads Nombre de fils.
+     * @return L'executor.
+     * @throws IllegalStateException Si el panell ja està tancat.
+     */
+    public ExecutorService executor(String threadName, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(() -> {
+                        try {
+                            r.run();
+                        } finally {
+                            MatPool.clearCurrentThread();
+                        }
+                    }, name + "-" + threadName + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }) {
+            @Override
+            protected void terminated() {
+                // El crida l'últim fil de l'executor en acabar, encara que sigui després del temps d'espera
+                liveExecutors.decrementAndGet();
+                releaseIfFinished();
+            }
+        };
+        synchronized (stateLock) {
+            if (state == State.CLOSED) {
+                throw new IllegalStateException("El panell " + name + " ja està tancat");
+            }
+            liveExecutors.incrementAndGet();
+            executors.add(executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Espera mentre el panell està en pausa.
+     *
+     * @return {@code true} si el fil ha de continuar, {@code false} si el panell s'ha tancat.
+     * @throws InterruptedException Si s'interromp el fil.
+     */
+    public boolean awaitRunning() throws InterruptedException {
+        synchronized (stateLock) {
+            while (state == State.PAUSED) {
+                stateLock.wait();
+            }
+            return state == State.RUNNING;
+        }
+    }
+
+    /**
+     * Registra una acció que s'executa en tancar el panell. Les accions
+     * s'executen en ordre invers al de registre.
+     *
+     * @param cleanup L'acció.
+     */
+    public synchronized void onClose(Runnable cleanup) {
+        cleanups.push(cleanup);
+    }
+
+    /**
+     * Registra una càmera perquè s'alliberi en tancar el panell.
+     *
+     * @param camera La càmera.
+     * @return La mateixa càmera.
+     */
+    public VideoCapture camera(VideoCapture camera) {
+        onClose(camera::release);
+        return camera;
+    }
+
+    /**
+     * Registra una matriu perquè s'alliberi en tancar el panell.
+     *
+     * @param mat La matriu.
+     * @return La mateixa matriu.
+     */
+    public <T extends Mat> T mat(T mat) {
+        onClose(mat::release);
+        return mat;
+    }
+
+    /**
+     * Lliga el cicle de vida a una finestra: es posa en pausa quan es minimitza,
+     * es reprèn quan es restaura i es tanca quan es tanca la finestra.
+     *
+     * @param window La finestra del panell.
+     */
+    public void bindTo(Window window) {
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowIconified(WindowEvent e) {
+                pause();
+            }
+
+            @Override
+            public void windowDeiconified(WindowEvent e) {
+                resume();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                closeInBackground();
+            }
+        });
+    }
+
+    /**
+     * Atura els fils temporalment. La càmera continua oberta.
+     */
+    public void pause() {
+        synchronized (stateLock) {
+            if (state == State.RUNNING) {
+                state = State.PAUSED;
+            }
+        }
+    }
+
+    /**
+     * Reprèn els fils aturats amb {@link #pause()}.
+     */
+    public void resume() {
+        synchronized (stateLock) {
+            if (state == State.PAUSED) {
+                state = State.RUNNING;
+                stateLock.notifyAll();
+            }
+        }
+    }
+
+    public State getState() {
+        synchronized (stateLock) {
+            return state;
+        }
+    }
+
+    public boolean isClosed() {
+        return getState() == State.CLOSED;
+    }
+
+    /**
+     * Tanca el panell: atura els executors i els fils, els espera i allibera
+     * els recursos. Es pot cridar més d'una vegada, també des d'un fil del
+     * mateix panell.
+     */
+    public void close() {
+        synchronized (stateLock) {
+            if (state == State.CLOSED) {
+                return;
+            }
+            state = State.CLOSED;
+            stateLock.notifyAll();
+        }
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+        Thread self = Thread.currentThread();
+        for (Thread worker : workers) {
+            if (worker != self) {
+                worker.interrupt();
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(JOIN_TIMEOUT_MS);
+        try {
+            for (Thread worker : workers) {
+                if (worker != self) {
+                    worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                }
+            }
+            for (ExecutorService executor : executors) {
+                executor.awaitTermination(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Thread worker : workers) {
+            if (worker != self && worker.isAlive()) {
+                LEAKED.add(worker);
+                Throwable where = new Throwable("Pila del fil " + worker.getName());
+                where.setStackTrace(worker.getStackTrace());
+                LOG.log(Level.WARNING, "El fil " + worker.getName() + " no ha acabat en tancar " + name
+                        + "; els recursos s'alliberaran quan acabi", where);
+            }
+        }
+        for (ExecutorService executor : executors) {
+            if (!executor.isTerminated()) {
+                LOG.log(Level.WARNING, "Un executor de {0} no ha acabat a temps", name);
+            }
+        }
+        releaseIfFinished();
+    }
+
+    /**
+     * Fa {@link #close()} en un fil propi, per no esperar els fils ni alliberar
+     * els recursos des del fil de Swing.
+     */
+    public void closeInBackground() {
+        Thread closer = new Thread(this::close, name + "-tancament");
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    /**
+     * Allibera els recursos si el panell està tancat i ja no queda cap fil ni
+     * cap executor en marxa.
+     */
+    private void releaseIfFinished() {
+        if (getState() == State.CLOSED && liveWorkers.get() == 0 && liveExecutors.get() == 0) {
+            runCleanups();
+        }
+    }
+
+    private void runCleanups() {
+        if (!cleaned.compareAndSet(false, true)) {
+            return;
+        }
+        List<Runnable> actions;
+        synchronized (this) {
+            actions = new ArrayList<>(cleanups);
+            cleanups.clear();
+        }
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Error alliberant un recurs de " + name, e);
+            }
+        }
+    }
+
+    /**
+     * @return Els fils de panells tancats que encara no han acabat.
+     */
+    public static List<Thread> getLeakedThreads() {
+        List<Thread> alive = new ArrayList<>();
+        for (Thread thread : LEAKED) {
+            if (thread.isAlive()) {
+                alive.add(thread);
+            } else {
+                LEAKED.remove(thread);
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * Escriu els fils perduts, si n'hi ha.
+     *
+     * @param out On s'escriu l'informe.
+     */
+    public static void reportLeakedThreads(PrintStream out) {
+        List<Thread> leaked = getLeakedThreads();
+        if (leaked.isEmpty()) {
+            return;
+        }
+        out.println(leaked.size() + " fils de panells tancats continuen en marxa:");
+        for (Thread thread : leaked) {
+            out.println("  " + thread.getName() + " (" + thread.getState() + ")");
+        }
+    }
+}
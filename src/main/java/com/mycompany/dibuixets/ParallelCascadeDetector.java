@@ -0,0 +1,173 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Detecció de cares amb la piràmide d'escales repartida entre diversos fils.
+ * <p>
+ * En lloc d'una sola crida a {@code detectMultiScale} (que només s'executa en
+ * paral·lel si OpenCV s'ha compilat així), es calculen explícitament els nivells
+ * de la piràmide entre la mida mínima i màxima de cara i es reparteixen en
+ * franges contigües d'escala entre els fils d'un {@link ForkJoinPool}. Com que
+ * les escales petites són molt més cares (hi ha més finestres a provar), les
+ * franges s'equilibren segons el cost estimat de cada nivell i no pel nombre de
+ * nivells. Cada fil té el seu propi classificador i els resultats de totes les
+ * franges es fusionen amb supressió de no-màxims.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class ParallelCascadeDetector {
+
+    private static final double SCALE_FACTOR = 1.1;
+    private static final int CASCADE_WINDOW = 20;
+    private static final double OVERLAP_THRESHOLD = 0.3; // IoU a partir del qual dues caixes són la mateixa cara
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final ThreadLocal<CascadeClassifier> classifiers;
+
+    /**
+     * Crea un detector paral·lel.
+     *
+     * @param cascadePath Ruta del fitxer XML de la cascada.
+     * @param parallelism Nombre de fils (i de franges d'escala).
+     */
+    public ParallelCascadeDetector(String cascadePath, int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.pool = new ForkJoinPool(this.parallelism);
+        this.classifiers = ThreadLocal.withInitial(() -> new CascadeClassifier(cascadePath));
+    }
+
+    /**
+     * Detecta cares en una imatge en escala de grisos ja preparada.
+     *
+     * @param gray Imatge en grisos (equalitzada si cal).
+     * @param minSize Mida mínima de cara.
+     * @param maxSize Mida màxima de cara.
+     * @return Les cares detectades, sense duplicats entre franges.
+     */
+    public Rect[] detect(Mat gray, Size minSize, Size maxSize) {
+        List<double[]> bands = splitBands(minSize.width, maxSize.width);
+        List<Future<Rect[]>> futures = new ArrayList<>(bands.size());
+        for (double[] band : bands) {
+            futures.add(pool.submit(() -> detectBand(gray, band[0], band[1])));
+        }
+
+        List<Rect> all = new ArrayList<>();
+        for (Future<Rect[]> future : futures) {
+            try {
+                for (Rect r : future.get()) {
+                    all.add(r);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Error en la detecció paral·lela", e.getCause());
+            }
+        }
+        return suppressOverlaps(all);
+    }
+
+    /**
+     * Atura els fils del detector.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private Rect[] detectBand(Mat gray, double minSize, double maxSize) {
+        MatOfRect faces = new MatOfRect();
+        classifiers.get().detectMultiScale(gray, faces, SCALE_FACTOR, 2, Objdetect.CASCADE_SCALE_IMAGE,
+                new Size(minSize, minSize), new Size(maxSize, maxSize));
+        Rect[] result = faces.toArray();
+        faces.release();
+        return result;
+    }
+
+    /**
+     * Reparteix els nivells de la piràmide entre franges de cost semblant.
+     * El cost d'un nivell és proporcional al nombre de finestres, és a dir, a
+     * 1/escala².
+     *
+     * @return Una llista de parells {mida mínima, mida màxima}.
+     */
+    private List<double[]> splitBands(double minSize, double maxSize) {
+        minSize = Math.max(CASCADE_WINDOW, minSize);
+        maxSize = Math.max(minSize, maxSize);
+        List<Double> levels = new ArrayList<>();
+        for (double size = minSize; size <= maxSize; size *= SCALE_FACTOR) {
+            levels.add(size);
+        }
+        double total = 0;
+        for (double size : levels) {
+            total += 1.0 / (size * size);
+        }
+
+        List<double[]> bands = new ArrayList<>(parallelism);
+        double target = total / parallelism;
+        double accumulated = 0;
+        int start = 0;
+        for (int i = 0; i < levels.size(); i++) {
+            accumulated += 1.0 / (levels.get(i) * levels.get(i));
+            boolean last = i == levels.size() - 1;
+            if (last || (accumulated >= target && bands.size() < parallelism - 1)) {
+                // Les franges es toquen una mica perquè una cara a la frontera no es perdi
+                double lo = levels.get(start);
+                double hi = last ? maxSize : levels.get(i) * SCALE_FACTOR;
+                bands.add(new double[]{lo, hi});
+                start = i + 1;
+                accumulated = 0;
+            }
+        }
+        return bands;
+    }
+
+    /**
+     * Supressió de no-màxims: es descarten les caixes que se solapen massa amb
+     * una caixa més gran ja acceptada.
+     */
+    private static Rect[] suppressOverlaps(List<Rect> rects) {
+        rects.sort(Comparator.comparingDouble(Rect::area).reversed());
+        List<Rect> kept = new ArrayList<>();
+        for (Rect candidate : rects) {
+            boolean duplicate = false;
+            for (Rect k : kept) {
+                if (overlap(candidate, k) > OVERLAP_THRESHOLD) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) {
+                kept.add(candidate);
+            }
+        }
+        return kept.toArray(new Rect[0]);
+    }
+
+    private static double overlap(Rect a, Rect b) {
+        int x0 = Math.max(a.x, b.x);
+        int y0 = Math.max(a.y, b.y);
+        int x1 = Math.min(a.x + a.width, b.x + b.width);
+        int y1 = Math.min(a.y + a.height, b.y + b.height);
+        if (x1 <= x0 || y1 <= y0) {
+            return 0;
+        }
+        double intersection = (double) (x1 - x0) * (y1 - y0);
+        // Es compara amb la caixa petita perquè una cara dins d'una altra també és un duplicat
+        return intersection / Math.min(a.area(), b.area());
+    }
+}
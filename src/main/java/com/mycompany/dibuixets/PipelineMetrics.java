@@ -0,0 +1,333 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Mètriques de rendiment d'un panell de vídeo.
+ * <p>
+ * Cada etapa del processament (captura, conversió, detecció, OCR, croma,
+ * pintat...) es cronometra amb {@link #start()} i {@link #stop(String, long)}
+ * i es registra en un {@link LatencyHistogram}. També es compten els
+ * fotogrames processats i els descartats, que són els que es preparen però se
+ * substitueixen per un de més nou abans que Swing els arribi a pintar.
+ * </p>
+ *
+ * <p>
+ * Les mètriques es poden mostrar sobre el vídeo ({@link #drawOverlay}) si la
+ * clau {@code metricsOverlay} de data/preferencias.txt és {@code true}, i
+ * sempre s'exporten per JMX com a
+ * {@code com.mycompany.dibuixets:type=Pipeline,name=<panell>}. La
+ * superposició mostra l'últim interval de dos segons; JMX mostra el total
+ * acumulat.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+
+    private static final long WINDOW_NANOS = 2_000_000_000L; // Interval de la superposició
+
+    private final String name;
+    private final boolean overlay;
+    private final Map<String, LatencyHistogram> total = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> window = new ConcurrentHashMap<>();
+    private final List<String> stages = new CopyOnWriteArrayList<>(); // Etapes per ordre d'aparició
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicBoolean pendingPaint = new AtomicBoolean();
+    private ObjectName objectName;
+
+    // Últim interval tancat, per a la superposició (protegit per this)
+    private long windowStart = System.nanoTime();
+    private long windowFrames = 0;
+    private double fps = 0;
+    private String[] overlayLines = new String[0];
+
+    /**
+     * Crea les mètriques d'un panell i les registra a JMX.
+     *
+     * @param name Nom del panell.
+     */
+    public PipelineMetrics(String name) {
+        this.name = name;
+        this.overlay = Boolean.parseBoolean(Preferences.get("metricsOverlay", "false"));
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName candidate = new ObjectName("com.mycompany.dibuixets:type=Pipeline,name=" + ObjectName.quote(name));
+            if (server.isRegistered(candidate)) {
+                server.unregisterMBean(candidate); // Una finestra nova del mateix panell substitueix l'anterior
+            }
+            server.registerMBean(this, candidate);
+            objectName = candidate;
+        } catch (JMException e) {
+            System.err.println("No s'han pogut exportar les mètriques per JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return El moment d'inici d'una mesura.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Registra la durada d'una etapa.
+     *
+     * @param stage Nom de l'etapa.
+     * @param start Valor retornat per {@link #start()}.
+     * @return El moment actual, per encadenar la mesura de l'etapa següent.
+     */
+    public long stop(String stage, long start) {
+        long now = System.nanoTime();
+        total.computeIfAbsent(stage, s -> {
+            stages.add(s);
+            return new LatencyHistogram();
+        }).record(now - start);
+        window.computeIfAbsent(stage, s -> new LatencyHistogram()).record(now - start);
+        return now;
+    }
+
+    /**
+     * Indica que hi ha un fotograma nou preparat per pintar. Si l'anterior no
+     * s'havia arribat a pintar, es compta com a descartat.
+     */
+    public void frameReady() {
+        frames.increment();
+        if (pendingPaint.getAndSet(true)) {
+            dropped.increment();
+        }
+        synchronized (this) {
+            windowFrames++;
+            long now = System.nanoTime();
+            if (now - windowStart >= WINDOW_NANOS) {
+                rollWindow(now);
+            }
+        }
+    }
+
+    /**
+     * Indica que el fotograma preparat ja s'ha pintat.
+     */
+    public void framePainted() {
+        pendingPaint.set(false);
+    }
+
+    /**
+     * Compta un fotograma descartat per un altre motiu (per exemple, una cua plena).
+     */
+    public void dropped() {
+        dropped.increment();
+    }
+
+    public boolean isOverlayEnabled() {
+        return overlay;
+    }
+
+    /**
+     * Dibuixa les mètriques de l'últim interval a la cantonada superior esquerra.
+     *
+     * @param g Context gràfic del panell.
+     */
+    public void drawOverlay(Graphics2D g) {
+        if (!overlay) {
+            return;
+        }
+        String[] lines;
+        double currentFps;
+        synchronized (this) {
+            lines = overlayLines;
+            currentFps = fps;
+        }
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        int lineHeight = g.getFontMetrics().getHeight();
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(4, 4, 300, lineHeight * (lines.length + 4) + 6);
+        g.setColor(Color.WHITE);
+        g.drawString(String.format(Locale.ROOT, "%.1f fps  %d descartats", currentFps, dropped.sum()), 8, 4 + lineHeight);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], 8, 4 + lineHeight * (i + 2));
+        }
+        // Matrius temporals vives: si creix sense parar, hi ha una fuita
+        g.drawString(String.format(Locale.ROOT, "matrius %d (%.1f MB)  fuites %d", MatTracker.getLiveCount(),
+                MatTracker.getLiveBytes() / 1e6, MatTracker.getLeaked()), 8, 4 + lineHeight * (lines.length + 2));
+        g.drawString(String.format(Locale.ROOT, "reserva %.1f MB (màx %.1f)  %d alliberades", MatPool.getPooledBytes() / 1e6,
+                MatPool.getPeakBytes() / 1e6, MatPool.getDiscarded()), 8, 4 + lineHeight * (lines.length + 3));
+        g.drawString(String.format(Locale.ROOT, "        %d reutilitzades  %d noves",
+                MatPool.getHits(), MatPool.getMisses()), 8, 4 + lineHeight * (lines.length + 4));
+    }
+
+    /**
+     * Treu les mètriques de JMX.
+     */
+    public void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // Ja no hi era
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Tanca l'interval actual: calcula els fotogrames per segon i prepara el
+     * text de la superposició.
+     */
+    private void rollWindow(long now) {
+        fps = windowFrames * 1e9 / (now - windowStart);
+        windowStart = now;
+        windowFrames = 0;
+        if (overlay) {
+            List<String> lines = new ArrayList<>();
+            for (String stage : stages) {
+                LatencyHistogram h = window.get(stage);
+                if (h == null) {
+                    continue;
+                }
+                lines.add(String.format(Locale.ROOT, "%-8s p50 %6.2f  p99 %6.2f ms", stage,
+                        h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6));
+                h.reset();
+            }
+            overlayLines = lines.toArray(new String[0]);
+        } else {
+            for (LatencyHistogram h : window.values()) {
+                h.reset();
+            }
+        }
+    }
+
+    @Override
+    public synchronized double getFps() {
+        return fps;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return dropped.sum();
+    }
+
+    @Override
+    public Map<String, Double> getP50Millis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (String stage : stages) {
+            LatencyHistogram h = total.get(stage);
+            if (h != null) {
+                result.put(stage, h.getValueAtPercentile(50) / 1e6);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (String stage : stages) {
+            LatencyHistogram h = total.get(stage);
+            if (h != null) {
+                result.put(stage, h.getValueAtPercentile(99) / 1e6);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (String stage : stages) {
+            LatencyHistogram h = total.get(stage);
+            if (h != null) {
+                result.put(stage, h.getMaxNanos() / 1e6);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (String stage : stages) {
+            LatencyHistogram h = total.get(stage);
+            if (h != null) {
+                result.put(stage, h.getCount());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getLiveMats() {
+        return MatTracker.getLiveCount();
+    }
+
+    @Override
+    public long getLiveMatBytes() {
+        return MatTracker.getLiveBytes();
+    }
+
+    @Override
+    public long getLeakedMats() {
+        return MatTracker.getLeaked();
+    }
+
+    @Override
+    public long getMatPoolHits() {
+        return MatPool.getHits();
+    }
+
+    @Override
+    public long getMatPoolMisses() {
+        return MatPool.getMisses();
+    }
+
+    @Override
+    public long getMatPoolDiscarded() {
+        return MatPool.getDiscarded();
+    }
+
+    @Override
+    public long getMatPoolBytes() {
+        return MatPool.getPooledBytes();
+    }
+
+    @Override
+    public long getMatPoolPeakBytes() {
+        return MatPool.getPeakBytes();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : total.values()) {
+            h.reset();
+        }
+        frames.reset();
+        dropped.reset();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + getP50Millis();
+    }
+}
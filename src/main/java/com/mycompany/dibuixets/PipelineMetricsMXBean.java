@@ -0,0 +1,77 @@
+package com.mycompany.dibuixets;
+
+import java.util.Map;
+
+/**
+ * Interfície JMX de {@link PipelineMetrics}. Es pot consultar amb JConsole o
+ * VisualVM sota el domini {@code com.mycompany.dibuixets}.
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public interface PipelineMetricsMXBean {
+
+    /**
+     * @return Fotogrames per segon de l'últim interval.
+     */
+    double getFps();
+
+    long getFrames();
+
+    long getDroppedFrames();
+
+    /**
+     * @return Mediana de cada etapa, en mil·lisegons.
+     */
+    Map<String, Double> getP50Millis();
+
+    /**
+     * @return Percentil 99 de cada etapa, en mil·lisegons.
+     */
+    Map<String, Double> getP99Millis();
+
+    /**
+     * @return Latència màxima de cada etapa, en mil·lisegons.
+     */
+    Map<String, Double> getMaxMillis();
+
+    /**
+     * @return Nombre de mesures de cada etapa.
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * @return Matrius vives comptades per {@link MatTracker} (de tota l'aplicació).
+     */
+    int getLiveMats();
+
+    long getLiveMatBytes();
+
+    /**
+     * @return Matrius recollides sense tancar.
+     */
+    long getLeakedMats();
+
+    /**
+     * @return Matrius obtingudes de {@link MatPool} sense reservar memòria.
+     */
+    long getMatPoolHits();
+
+    long getMatPoolMisses();
+
+    /**
+     * @return Matrius alliberades en tornar-les a la reserva perquè se superava el límit.
+     */
+    long getMatPoolDiscarded();
+
+    long getMatPoolBytes();
+
+    /**
+     * @return Màxim de bytes que ha arribat a guardar la reserva.
+     */
+    long getMatPoolPeakBytes();
+
+    /**
+     * Esborra les mesures acumulades.
+     */
+    void reset();
+}
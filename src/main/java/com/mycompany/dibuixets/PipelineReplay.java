@@ -0,0 +1,535 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.NativeLoader;
+import net.sourceforge.tess4j.ITesseract;
+import net.sourceforge.tess4j.TesseractException;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.tracking.TrackerKCF;
+import org.opencv.video.Tracker;
+import org.opencv.videoio.VideoCapture;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prova de rendiment de punta a punta que reprodueix un vídeo gravat (o
+ * fotogrames sintètics) a través de les cadenes de processament reals, sense
+ * càmera ni pantalla.
+ * <p>
+ * Un fil font llegeix els fotogrames i en dona una còpia a cada cadena
+ * (cares, croma, seguiment i OCR), que s'executa en el seu propi fil amb una
+ * cua de mida fixa, com passa a l'aplicació. Així es veuen els efectes de les
+ * cues i de la competència pels nuclis que les proves unitàries de JMH no
+ * mostren. Per defecte la font va tan ràpid com pot i s'espera quan una cua
+ * és plena; amb {@code --realtime FPS} la font va al ritme de la càmera i
+ * descarta els fotogrames que no caben, com faria la captura real.
+ * </p>
+ *
+ * <p>
+ * En acabar mostra, per a cada cadena, els fotogrames per segon sostinguts,
+ * els percentils de latència de l'etapa i de punta a punta (incloent-hi
+ * l'espera a la cua), els fotogrames descartats i el pic de memòria resident
+ * del procés, que inclou la memòria nativa d'OpenCV.</p>
+ *
+ * <p>
+ * Amb {@code --streams N} es creen N còpies de cada cadena, com si hi hagués N
+ * fonts de vídeo. Amb {@code --cpu-pool} les cadenes segueixen el model de
+ * {@link StreamExecutors}: cada cadena espera a la seva cua en un fil d'E/S
+ * (virtual a partir de Java 21) i el processament es fa al pool de càlcul
+ * compartit, en lloc de tenir un fil del sistema per cadena. L'informe mostra
+ * el pic de fils del procés per comparar els dos models.</p>
+ * <pre>
+ * PipelineReplay [--video fitxer | --synthetic N] [--size AMPLExALT] [--pipelines faces,chroma,tracking,ocr]
+ *                [--queue N] [--realtime FPS] [--ocr-every N] [--streams N] [--cpu-pool]
+ * </pre>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class PipelineReplay {
+
+    /**
+     * Fotograma a la cua d'una cadena, amb el moment en què s'ha llegit.
+     */
+    private static class Frame {
+        final Mat image = new Mat();
+        long capturedAt;
+    }
+
+    /**
+     * Mostres de latència. Es guarden totes i s'ordenen al final, de manera
+     * que els percentils són exactes.
+     */
+    private static class Latencies {
+        private long[] values = new long[1024];
+        private int count = 0;
+
+        void add(long nanos) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = nanos;
+        }
+
+        String summary() {
+            if (count == 0) {
+                return "sense mostres";
+            }
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return String.format(Locale.ROOT, "p50 %.2f  p95 %.2f  p99 %.2f  max %.2f ms",
+                    percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                    sorted[count - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+        }
+    }
+
+    /**
+     * Una cadena de processament amb el seu fil i la seva cua.
+     */
+    private abstract static class Pipeline implements Runnable {
+        final String name;
+        final BlockingQueue<Frame> queue;
+        final BlockingQueue<Frame> free;
+        final Latencies stage = new Latencies();
+        final Latencies endToEnd = new Latencies();
+        long processed = 0;
+        long dropped = 0;
+        long errors = 0;
+        long firstStart = 0;
+        long lastEnd = 0;
+        volatile boolean finished = false;
+        volatile boolean stopped = false; // El fil de la cadena ha acabat, encara que sigui per un error
+        volatile Throwable failure = null; // Primer error de l'etapa
+        boolean onCpuPool = false; // Processa al pool de càlcul compartit en lloc del fil propi
+
+        Pipeline(String name, int capacity) {
+            this.name = name;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.free = new ArrayBlockingQueue<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                free.add(new Frame());
+            }
+        }
+
+        /**
+         * Dona un fotograma a la cadena.
+         *
+         * @param block Si s'ha d'esperar quan la cua és plena; si no, es descarta.
+         * Si la cadena s'ha aturat, també es descarta.
+         */
+        void offer(Mat image, long capturedAt, boolean block) throws InterruptedException {
+            Frame frame = free.poll();
+            // Es torna a mirar si la cadena s'ha aturat, perquè no tornaria mai el fotograma
+            while (block && frame == null && !stopped) {
+                frame = free.poll(50, TimeUnit.MILLISECONDS);
+            }
+            if (frame == null || stopped) {
+                dropped++;
+                return;
+            }
+            image.copyTo(frame.image);
+            frame.capturedAt = capturedAt;
+            queue.put(frame);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!finished || !queue.isEmpty()) {
+                    Frame frame = queue.poll(50, TimeUnit.MILLISECONDS);
+                    if (frame == null) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    if (firstStart == 0) {
+                        firstStart = start;
+                    }
+                    try {
+                        if (onCpuPool) {
+                            StreamExecutors.callCpu(() -> {
+                                process(frame.image);
+                                return null;
+                            });
+                        } else {
+                            process(frame.image);
+                        }
+                        long end = System.nanoTime();
+                        stage.add(end - start);
+                        endToEnd.add(end - frame.capturedAt);
+                        lastEnd = end;
+                        processed++;
+                    } catch (RuntimeException e) {
+                        // Un fotograma que falla no atura la prova, però es compta i s'informa
+                        if (failure == null) {
+                            failure = e;
+                        }
+                        errors++;
+                    } finally {
+                        free.add(frame);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Error e) {
+                failure = e;
+                throw e;
+            } finally {
+                stopped = true;
+                close();
+            }
+        }
+
+        abstract void process(Mat frame);
+
+        void close() {
+        }
+
+        String report() {
+            double seconds = (lastEnd - firstStart) / 1e9;
+            String report = String.format(Locale.ROOT, "%-9s %6d fotogrames  %7.1f fps  %d descartats%n"
+                    + "          etapa:        %s%n          punta a punta: %s",
+                    name, processed, seconds > 0 ? processed / seconds : 0, dropped,
+                    stage.summary(), endToEnd.summary());
+            if (failure != null) {
+                report += String.format(Locale.ROOT, "%n          errors:        %d (%s)", errors, failure);
+            }
+            return report;
+        }
+    }
+
+    private static Pipeline faces(int capacity) {
+        FaceDetectorBackend detector = FaceDetectorBackend.fromPreferences();
+        return new Pipeline("cares", capacity) {
+            @Override
+            void process(Mat frame) {
+                for (Rect r : detector.detect(frame)) {
+                    Imgproc.rectangle(frame, r.tl(), r.br(), new Scalar(255, 0, 0), 3);
+                }
+            }
+
+            @Override
+            void close() {
+                detector.release();
+            }
+        };
+    }
+
+    private static Pipeline chroma(int capacity, Size size) {
+        Mat background = new Mat((int) size.height, (int) size.width, CvType.CV_8UC3, new Scalar(40, 20, 120));
+        Scalar lower = new Scalar(35, 50, 50);
+        Scalar upper = new Scalar(85, 255, 255);
+        return new Pipeline("croma", capacity) {
+            @Override
+            void process(Mat frame) {
+                Croma.applyChromaKeyEffect(frame, background, lower, upper);
+            }
+
+            @Override
+            void close() {
+                background.release();
+            }
+        };
+    }
+
+    private static Pipeline tracking(int capacity) {
+        return new Pipeline("seguiment", capacity) {
+            Tracker tracker;
+            Rect roi;
+
+            @Override
+            void process(Mat frame) {
+                if (tracker == null) {
+                    // Es comença seguint la zona central del primer fotograma
+                    roi = new Rect(frame.cols() * 2 / 5, frame.rows() * 2 / 5, frame.cols() / 5, frame.rows() / 5);
+                    tracker = TrackerKCF.create();
+                    tracker.init(frame, roi);
+                } else if (!tracker.update(frame, roi)) {
+                    tracker = null; // Perdut: es torna a començar al fotograma següent
+                }
+            }
+        };
+    }
+
+    private static Pipeline ocr(int capacity, int every) {
+        ITesseract engine = TextRecognition.createEngine();
+        Mat binary = new Mat();
+        return new Pipeline("ocr", capacity) {
+            long count = 0;
+
+            @Override
+            void process(Mat frame) {
+                TextRecognition.binarize(frame, binary);
+                // Com a l'aplicació, l'OCR complet no es fa a cada fotograma
+                if (count++ % every == 0) {
+                    try {
+                        engine.doOCR(TextRecognition.matToBufferedImage(binary));
+                    } catch (TesseractException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+
+            @Override
+            void close() {
+                binary.release();
+            }
+        };
+    }
+
+    /**
+     * Pic de memòria resident del procés, en MB, llegit de /proc (només Linux).
+     *
+     * @return El pic, o -1 si no es pot saber.
+     */
+    private static double peakResidentMB() {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status)) {
+            return -1;
+        }
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) / 1024.0;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Punt d'entrada de la prova.
+     *
+     * Acaba amb codi 1 si no es pot obrir el vídeo o si alguna cadena ha fallat.
+     *
+     * @param args Opcions de la línia de comandes.
+     * @throws InterruptedException Si s'interromp l'execució.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String video = null;
+        int synthetic = 600;
+        Size size = new Size(1280, 720);
+        List<String> names = Arrays.asList("faces", "chroma", "tracking", "ocr");
+        int capacity = 4;
+        double realtimeFps = 0;
+        int ocrEvery = 30;
+        int streams = 1;
+        boolean cpuPool = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--video":
+                    video = args[++i];
+                    break;
+                case "--synthetic":
+                    synthetic = Integer.parseInt(args[++i]);
+                    break;
+                case "--size":
+                    String[] wh = args[++i].toLowerCase().split("x");
+                    size = new Size(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]));
+                    break;
+                case "--pipelines":
+                    names = Arrays.asList(args[++i].split(","));
+                    break;
+                case "--queue":
+                    capacity = Integer.parseInt(args[++i]);
+                    break;
+                case "--realtime":
+                    realtimeFps = Double.parseDouble(args[++i]);
+                    break;
+                case "--ocr-every":
+                    ocrEvery = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--streams":
+                    streams = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--cpu-pool":
+                    cpuPool = true;
+                    break;
+                default:
+                    System.err.println("Ús: PipelineReplay [--video fitxer | --synthetic N] [--size AMPLExALT]"
+                            + " [--pipelines faces,chroma,tracking,ocr] [--queue N] [--realtime FPS] [--ocr-every N]"
+                            + " [--streams N] [--cpu-pool]");
+                    return;
+            }
+        }
+        NativeLoader.load();
+
+        // La font s'obre abans d'engegar les cadenes, que no s'aturarien si fallés
+        VideoCapture capture = null;
+        if (video != null) {
+            capture = new VideoCapture(video);
+            if (!capture.isOpened()) {
+                System.err.println("No s'ha pogut obrir el vídeo " + video);
+                System.exit(1);
+            }
+        }
+
+        List<Pipeline> pipelines = new ArrayList<>();
+        for (int s = 0; s < streams; s++) {
+            for (String name : names) {
+                switch (name.trim()) {
+                    case "faces":
+                        pipelines.add(faces(capacity));
+                        break;
+                    case "chroma":
+                        pipelines.add(chroma(capacity, size));
+                        break;
+                    case "tracking":
+                        pipelines.add(tracking(capacity));
+                        break;
+                    case "ocr":
+                        pipelines.add(ocr(capacity, ocrEvery));
+                        break;
+                    default:
+                        System.err.println("Cadena desconeguda: " + name);
+                        return;
+                }
+            }
+        }
+        List<Thread> threads = new ArrayList<>();
+        ExecutorService io = null;
+        if (cpuPool) {
+            io = StreamExecutors.newIoExecutor("replay");
+            for (Pipeline pipeline : pipelines) {
+                pipeline.onCpuPool = true;
+                io.execute(pipeline);
+            }
+        } else {
+            for (Pipeline pipeline : pipelines) {
+                Thread t = new Thread(pipeline, "replay-" + pipeline.name);
+                t.start();
+                threads.add(t);
+            }
+        }
+
+        long frames = 0;
+        long start = System.nanoTime();
+        long interval = realtimeFps > 0 ? (long) (1e9 / realtimeFps) : 0;
+        Mat frame = new Mat();
+        if (capture != null) {
+            while (capture.read(frame)) {
+                pace(start, frames, interval);
+                feed(pipelines, frame, interval == 0);
+                frames++;
+            }
+            capture.release();
+        } else {
+            SyntheticSource source = new SyntheticSource(size);
+            for (; frames < synthetic; frames++) {
+                source.next(frame, frames);
+                pace(start, frames, interval);
+                feed(pipelines, frame, interval == 0);
+            }
+            source.release();
+        }
+        long sourceEnd = System.nanoTime();
+
+        for (Pipeline pipeline : pipelines) {
+            pipeline.finished = true;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (io != null) {
+            io.shutdown();
+            io.awaitTermination(1, TimeUnit.DAYS);
+            StreamExecutors.cpu().shutdown();
+        }
+        frame.release();
+
+        System.out.printf(Locale.ROOT, "Font: %d fotogrames en %.2f s (%.1f fps)%n",
+                frames, (sourceEnd - start) / 1e9, frames / ((sourceEnd - start) / 1e9));
+        for (Pipeline pipeline : pipelines) {
+            System.out.println(pipeline.report());
+        }
+        Runtime rt = Runtime.getRuntime();
+        double peak = peakResidentMB();
+        System.out.printf(Locale.ROOT, "Memòria: pic resident %s, heap Java %.1f MB%n",
+                peak >= 0 ? String.format(Locale.ROOT, "%.1f MB", peak) : "n/d",
+                (rt.totalMemory() - rt.freeMemory()) / 1e6);
+        System.out.printf(Locale.ROOT, "Fils: pic de %d fils del sistema, %d cadenes, %s%n",
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), pipelines.size(),
+                cpuPool ? "pool de càlcul compartit" + (StreamExecutors.isVirtual() ? " i fils virtuals" : "")
+                        : "un fil per cadena");
+        if (pipelines.stream().anyMatch(p -> p.failure != null)) {
+            System.err.println("Alguna cadena ha fallat: els resultats no són vàlids");
+            System.exit(1);
+        }
+    }
+
+    private static void feed(List<Pipeline> pipelines, Mat frame, boolean block) throws InterruptedException {
+        long capturedAt = System.nanoTime();
+        for (Pipeline pipeline : pipelines) {
+            pipeline.offer(frame, capturedAt, block);
+        }
+    }
+
+    private static void pace(long start, long frames, long interval) throws InterruptedException {
+        if (interval > 0) {
+            long wait = start + frames * interval - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    /**
+     * Fotogrames sintètics: una imatge de mostra amb cares que es desplaça en
+     * cercle sobre un fons verd, perquè totes les cadenes tinguin feina.
+     */
+    private static class SyntheticSource {
+        private final Mat sprite;
+        private final Size size;
+        private final Mat transform = new Mat(2, 3, CvType.CV_64F);
+
+        SyntheticSource(Size size) {
+            this.size = size;
+            Mat sample = Imgcodecs.imread("images/faces.png");
+            if (sample.empty()) {
+                // Sense imatges de mostra: un rectangle clar fa de sprite
+                sample = new Mat((int) size.height / 2, (int) size.width / 2, CvType.CV_8UC3, new Scalar(200, 180, 160));
+            }
+            sprite = new Mat();
+            double scale = Math.min(size.width / 2 / sample.cols(), size.height / 2 / sample.rows());
+            Imgproc.resize(sample, sprite, new Size(sample.cols() * scale, sample.rows() * scale), 0, 0, Imgproc.INTER_AREA);
+            sample.release();
+        }
+
+        void next(Mat frame, long index) {
+            double angle = index * 2 * Math.PI / 120;
+            double cx = (size.width - sprite.cols()) / 2 * (1 + 0.6 * Math.cos(angle));
+            double cy = (size.height - sprite.rows()) / 2 * (1 + 0.6 * Math.sin(angle));
+            transform.put(0, 0, 1, 0, cx, 0, 1, cy);
+            Imgproc.warpAffine(sprite, frame, transform, size, Imgproc.INTER_LINEAR,
+                    Core.BORDER_CONSTANT, new Scalar(0, 200, 0));
+        }
+
+        void release() {
+            sprite.release();
+            transform.release();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memòria circular amb els últims segons de vídeo, per desar el que ha passat
+ * just abans d'un esdeveniment.
+ * <p>
+ * Els fotogrames es comprimeixen en JPEG en un fil de treball i es guarden en
+ * memòria com a bytes, de manera que uns quants segons ocupen pocs megabytes.
+ * Es descarten els fotogrames més antics que la finestra configurada i també
+ * quan se supera el pressupost de memòria. Quan es dispara un esdeveniment
+ * (una cara, un text reconegut, la pèrdua del seguiment...) el contingut de la
+ * memòria s'escriu a disc tal com està, sense tornar a codificar-lo.
+ * </p>
+ *
+ * <p>
+ * Es configura amb les claus {@code prerollSeconds} i {@code prerollBudgetMB}
+ * de data/preferencias.txt.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class PreRollBuffer {
+
+    /**
+     * Fotograma comprimit.
+     */
+    private static class Entry {
+        final long timestamp;
+        final byte[] jpeg;
+
+        Entry(long timestamp, byte[] jpeg) {
+            this.timestamp = timestamp;
+            this.jpeg = jpeg;
+        }
+    }
+
+    private static final int BUFFERS = 4; // Fotogrames que poden esperar la compressió
+
+    private final File directory;
+    private final long windowNanos;
+    private final long byteBudget;
+    private final int quality;
+    private final ExecutorService worker;
+    private final BlockingQueue<Mat> free;
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>(); // Protegit per this
+    private long totalBytes = 0;
+    private long lastTrigger = Long.MIN_VALUE / 2;
+    private long dropped = 0;
+
+    /**
+     * Crea una memòria amb la configuració de data/preferencias.txt.
+     *
+     * @param directory Directori on es desen els clips.
+     */
+    public PreRollBuffer(File directory) {
+        this(directory, Preferences.getDouble("prerollSeconds", 5),
+                (long) (Preferences.getDouble("prerollBudgetMB", 64) * 1024 * 1024), 80);
+    }
+
+    /**
+     * Crea una memòria.
+     *
+     * @param directory Directori on es desen els clips.
+     * @param seconds Segons que es guarden.
+     * @param byteBudget Memòria màxima per als fotogrames comprimits.
+     * @param quality Qualitat JPEG (1-100).
+     */
+    public PreRollBuffer(File directory, double seconds, long byteBudget, int quality) {
+        this.directory = directory;
+        this.windowNanos = (long) (seconds * 1e9);
+        this.byteBudget = byteBudget;
+        this.quality = quality;
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "preroll");
+            t.setDaemon(true);
+            return t;
+        });
+        this.free = new ArrayBlockingQueue<>(BUFFERS);
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(new Mat());
+        }
+    }
+
+    /**
+     * Afegeix un fotograma sense bloquejar. Si el fil de compressió no dona
+     * l'abast, el fotograma es descarta.
+     *
+     * @param frame Fotograma en color (BGR). Es copia.
+     */
+    public void offer(Mat frame) {
+        if (frame.empty() || worker.isShutdown()) {
+            return;
+        }
+        Mat buffer = free.poll();
+        if (buffer == null) {
+            synchronized (this) {
+                dropped++;
+            }
+            return;
+        }
+        long timestamp = System.nanoTime();
+        frame.copyTo(buffer);
+        worker.execute(() -> {
+            MatOfByte encoded = new MatOfByte();
+            MatOfInt params = ImageFiles.encodeParams(ImageFiles.Format.JPEG, quality);
+            try {
+                if (Imgcodecs.imencode(".jpg", buffer, encoded, params)) {
+                    append(new Entry(timestamp, encoded.toArray()));
+                }
+            } finally {
+                encoded.release();
+                params.release();
+                free.add(buffer);
+            }
+        });
+    }
+
+    /**
+     * Desa a disc els fotogrames de la memòria. Els esdeveniments que arriben
+     * abans que hagi passat una finestra sencera des de l'anterior s'ignoren,
+     * ja que la memòria encara conté bàsicament els mateixos fotogrames.
+     *
+     * @param reason Motiu de l'esdeveniment, que forma part del nom de la carpeta.
+     * @return {@code true} si s'ha començat a desar un clip.
+     */
+    public boolean trigger(String reason) {
+        List<Entry> snapshot;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - lastTrigger < windowNanos || entries.isEmpty()) {
+                return false;
+            }
+            lastTrigger = now;
+            snapshot = new ArrayList<>(entries);
+        }
+        String stamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        File clip = new File(directory, reason + "_" + stamp);
+        // S'escriu al mateix fil de treball, després dels fotogrames pendents de comprimir
+        worker.execute(() -> write(clip, snapshot));
+        return true;
+    }
+
+    /**
+     * @return Memòria ocupada pels fotogrames comprimits, en bytes.
+     */
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getFrames() {
+        return entries.size();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Atura el fil de treball després d'acabar les escriptures pendents.
+     */
+    public void close() {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    private synchronized void append(Entry entry) {
+        entries.addLast(entry);
+        totalBytes += entry.jpeg.length;
+        // Es descarta el que és massa antic o no cap al pressupost
+        while (!entries.isEmpty() && (entry.timestamp - entries.peekFirst().timestamp > windowNanos
+                || totalBytes > byteBudget)) {
+            totalBytes -= entries.pollFirst().jpeg.length;
+        }
+    }
+
+    private static void write(File clip, List<Entry> snapshot) {
+        clip.mkdirs();
+        try {
+            for (int i = 0; i < snapshot.size(); i++) {
+                Files.write(new File(clip, String.format("frame_%05d.jpg", i)).toPath(), snapshot.get(i).jpeg);
+            }
+        } catch (IOException e) {
+            System.err.println("No s'ha pogut desar el clip " + clip + ": " + e.getMessage());
+        }
+    }
+}
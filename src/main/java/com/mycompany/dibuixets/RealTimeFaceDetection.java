@@ -1,10 +1,9 @@
 package com.mycompany.dibuixets;
 
 import com.mycompany.dibuixets.dll.Constants;
-import static com.mycompany.dibuixets.dll.Preferences.getOpenCVPath;
+import com.mycompany.dibuixets.dll.NativeLoader;
 import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.objdetect.CascadeClassifier;
 import org.opencv.videoio.VideoCapture;
 import org.opencv.imgproc.Imgproc;
 
@@ -29,12 +28,21 @@ import java.io.File;
  */
 public class RealTimeFaceDetection extends JPanel {
     
-    private VideoCapture camera; // Objecte per capturar vídeo de la càmera
+    private volatile VideoCapture camera; // Objecte per capturar vídeo de la càmera (null mentre s'obre)
     private Mat frame; // Matriu per emmagatzemar el fotograma actual
     private BufferedImage bufferedImage; // Imatge per mostrar en el panell
-    private CascadeClassifier faceCascade; // Classificador per detectar rostres
+    private volatile String error; // Motiu pel qual no s'ha pogut engegar la captura, o null
+    private FaceDetectorBackend faceDetector; // Detector de rostres (cascada o DNN, segons les preferències)
     private String capturedImagePath = "images/captured_image.jpg"; // Ruta on es desarà la imatge capturada
     private JFrame frameWindow; // Finestra on es mostrarà el vídeo
+    private volatile FaceAnonymizer anonymizer = null; // Anonimitzador actiu, o null per dibuixar només les caixes
+    private volatile VideoRecorder recorder = null; // Gravació del vídeo processat, o null si no s'està gravant
+    private MjpegStreamServer.Channel stream; // Emissió HTTP del vídeo processat, o null si està desactivada
+    private PreRollBuffer preRoll; // Últims segons de vídeo, es desen quan apareix una cara
+    private final PipelineMetrics metrics = new PipelineMetrics("RealTimeFaceDetection"); // Temps de cada etapa
+    private MotionDetector motionDetector; // Evita tornar a detectar rostres quan l'escena està quieta
+    private static final int STILL_REFRESH_FRAMES = 30; // Fotogrames quiets entre deteccions de comprovació
+    private final PanelLifecycle lifecycle = new PanelLifecycle("RealTimeFaceDetection"); // Fil de captura i recursos
 
     /**
      * Constructor que inicialitza la càmera i el sistema de detecció de rostres.
@@ -44,13 +52,24 @@ public class RealTimeFaceDetection extends JPanel {
      * </p>
      */
     public RealTimeFaceDetection() {
-        System.load(getOpenCVPath()); // Carrega la llibreria OpenCV
+        NativeLoader.load(); // Carrega la llibreria OpenCV (només la primera vegada)
 
-        camera = new VideoCapture(0); // Inicialitza la càmera
-        frame = new Mat(); // Matriu per emmagatzemar els fotogrames capturats
-        
-        faceCascade = new CascadeClassifier(); // Inicialitza el classificador de rostres
-        faceCascade.load("data/haarcascade_frontalface_alt2.xml"); // Carrega el model Haar per detectar rostres
+        frame = lifecycle.mat(new Mat()); // Matriu per emmagatzemar els fotogrames capturats
+        // La càmera i el detector s'obtenen al fil de captura, perquè la finestra aparegui de seguida
+        motionDetector = new MotionDetector();
+        lifecycle.onClose(motionDetector::release);
+        preRoll = new PreRollBuffer(new File("videos/preroll"));
+        lifecycle.onClose(preRoll::close);
+        lifecycle.onClose(metrics::unregister);
+        lifecycle.onClose(() -> {
+            VideoRecorder current = recorder;
+            recorder = null;
+            if (current != null) {
+                current.stopInBackground(() -> { }); // Acaba el segment en curs sense esperar-lo
+            }
+        });
+        MjpegStreamServer streamServer = MjpegStreamServer.shared();
+        stream = streamServer != null ? streamServer.channel("rostres") : null;
 
         // Botó per guardar la imatge capturada
         JButton saveButton = new JButton("Guardar Imatge");
@@ -61,13 +80,61 @@ public class RealTimeFaceDetection extends JPanel {
             }
         });
 
+        // Botó per canviar el mode d'anonimització: caixes, difuminat o pixelat
+        JButton anonymizeButton = new JButton("Anonimitzar: No");
+        anonymizeButton.addActionListener(e -> {
+            FaceAnonymizer current = anonymizer;
+            if (current == null) {
+                anonymizer = new FaceAnonymizer(FaceAnonymizer.Mode.BLUR, 8);
+                anonymizeButton.setText("Anonimitzar: Difuminar");
+            } else if (current.getMode() == FaceAnonymizer.Mode.BLUR) {
+                anonymizer = new FaceAnonymizer(FaceAnonymizer.Mode.PIXELATE, 8);
+                anonymizeButton.setText("Anonimitzar: Pixelar");
+            } else {
+                anonymizer = null;
+                anonymizeButton.setText("Anonimitzar: No");
+            }
+        });
+
+        // Botó per gravar el vídeo amb les caixes o l'anonimització aplicades
+        JButton recordButton = new JButton("Gravar");
+        recordButton.addActionListener(e -> {
+            if (recorder == null) {
+                VideoRecorder started = VideoRecorder.fromPreferences(new File("videos"), "rostres");
+                // Si l'escriptura falla, el gravador s'atura sol: es torna a l'estat inicial i s'avisa
+                started.setErrorListener(message -> {
+                    if (recorder != started) {
+                        return; // Ja s'havia aturat des del botó
+                    }
+                    recorder = null;
+                    recordButton.setEnabled(false);
+                    started.stopInBackground(() -> {
+                        recordButton.setEnabled(true);
+                        recordButton.setText("Gravar");
+                        JOptionPane.showMessageDialog(this, "Error gravant el vídeo: " + message,
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                    });
+                });
+                recorder = started;
+                recordButton.setText("Aturar Gravació");
+            } else {
+                VideoRecorder current = recorder;
+                recorder = null;
+                recordButton.setEnabled(false); // Fins que s'acabi d'escriure el fitxer
+                current.stopInBackground(() -> {
+                    recordButton.setEnabled(true);
+                    recordButton.setText("Gravar");
+                    JOptionPane.showMessageDialog(this, "Gravació aturada: " + current);
+                });
+            }
+        });
+
         // Botó per tancar la finestra
         JButton backButton = new JButton("Volver");
         backButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                // Cierra la finestra sense tancar l'aplicació completa
-                camera.release();
+                // Tanca la finestra sense tancar l'aplicació completa; el cicle de vida allibera la càmera
                 frameWindow.dispose();
             }
         });
@@ -78,6 +145,10 @@ public class RealTimeFaceDetection extends JPanel {
         buttonPanel.add(Box.createHorizontalGlue()); // Alinea els botons al centre
         buttonPanel.add(saveButton);
         buttonPanel.add(Box.createHorizontalStrut(20)); // Espai entre botons
+        buttonPanel.add(anonymizeButton);
+        buttonPanel.add(Box.createHorizontalStrut(20));
+        buttonPanel.add(recordButton);
+        buttonPanel.add(Box.createHorizontalStrut(20));
         buttonPanel.add(backButton);
         buttonPanel.add(Box.createHorizontalGlue());
 
@@ -87,34 +158,99 @@ public class RealTimeFaceDetection extends JPanel {
         frameWindow.add(this, BorderLayout.CENTER); // Panell amb la detecció de rostres
         frameWindow.add(buttonPanel, BorderLayout.SOUTH); // Col·loca els botons a la part inferior
         frameWindow.setSize(640, 480);
-        frameWindow.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frameWindow.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        lifecycle.bindTo(frameWindow); // Pausa en minimitzar, atura el fil i allibera la càmera en tancar
 
         // Centra la finestra en la pantalla
         frameWindow.setLocationRelativeTo(null);
         frameWindow.setVisible(true);
 
         // Fil per capturar els fotogrames de la càmera i detectar rostres
-        new Thread(() -> {
-            while (true) {
-                if (camera.read(frame)) {
-                    Mat grayFrame = new Mat();
-                    Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY); // Converteix el fotograma a escala de grisos
-
-                    // Matriu per emmagatzemar els rostres detectats
-                    MatOfRect faces = new MatOfRect();
-                    faceCascade.detectMultiScale(grayFrame, faces, 1.1, 2, 0, new Size(30, 30), new Size());
-
-                    // Dibuixa rectangles al voltant dels rostres detectats
-                    for (Rect rect : faces.toArray()) {
-                        Imgproc.rectangle(frame, rect.tl(), rect.br(), new Scalar(255, 0, 0), 3);
+        lifecycle.start("captura", () -> {
+            // Si ResourceWarmup ja els ha preparat, arriben a l'instant
+            try {
+                faceDetector = ResourceWarmup.takeFaceDetector();
+                lifecycle.onClose(faceDetector::release);
+                camera = lifecycle.camera(ResourceWarmup.takeCamera());
+            } catch (RuntimeException e) {
+                showError("No s'ha pogut preparar la detecció: " + e.getMessage());
+                return;
+            }
+            if (!camera.isOpened()) {
+                showError("No s'ha pogut accedir a la càmera.");
+                return;
+            }
+            Rect[] faces = new Rect[0];
+            int stillFrames = 0;
+            int previousFaces = 0;
+            while (lifecycle.awaitRunning()) {
+                long t = metrics.start();
+                if (!camera.read(frame)) {
+                    Thread.sleep(10); // Sense fotograma: no es fa girar el bucle en buit
+                } else {
+                    t = metrics.stop("captura", t);
+                    // Si l'escena no es mou, les cares són les mateixes: es reutilitzen les últimes
+                    MotionDetector.Result motion = motionDetector.update(frame);
+                    t = metrics.stop("moviment", t);
+                    if (motion.isMoving() || ++stillFrames >= STILL_REFRESH_FRAMES) {
+                        // Les caixes es retornen sempre en coordenades del fotograma original
+                        faces = faceDetector.detect(frame);
+                        stillFrames = 0;
+                        t = metrics.stop("detecció", t);
+                    }
+                    boolean faceAppeared = faces.length > 0 && previousFaces == 0;
+                    previousFaces = faces.length;
+
+                    FaceAnonymizer currentAnonymizer = anonymizer;
+                    if (currentAnonymizer != null) {
+                        // Difumina o pixela només les regions de les cares
+                        currentAnonymizer.process(frame, faces);
+                    } else {
+                        // Dibuixa rectangles al voltant dels rostres detectats
+                        for (Rect rect : faces) {
+                            Imgproc.rectangle(frame, rect.tl(), rect.br(), new Scalar(255, 0, 0), 3);
+                        }
                     }
+                    t = metrics.stop("dibuix", t);
+
+                    // La gravació només copia el fotograma: la codificació es fa en un altre fil
+                    VideoRecorder currentRecorder = recorder;
+                    if (currentRecorder != null) {
+                        currentRecorder.offer(frame);
+                    }
+
+                    // Es guarda el fotograma ja processat; quan apareix una cara es desen els segons anteriors
+                    preRoll.offer(frame);
+                    if (stream != null) {
+                        stream.publish(frame);
+                    }
+                    if (faceAppeared) {
+                        preRoll.trigger("cara");
+                    }
+                    t = metrics.stop("sortida", t);
 
                     // Converteix el fotograma amb els rostres detectats a BufferedImage per mostrar-lo
                     bufferedImage = matToBufferedImage(frame);
+                    metrics.stop("conversió", t);
+                    metrics.frameReady();
                     repaint(); // Repinta el panell
                 }
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Deixa el missatge al panell, en lloc de "Obrint la càmera...", i l'avisa
+     * amb un diàleg.
+     *
+     * @param message Motiu de l'error.
+     */
+    private void showError(String message) {
+        error = message;
+        SwingUtilities.invokeLater(() -> {
+            repaint();
+            JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
+        });
     }
 
     /**
@@ -124,10 +260,16 @@ public class RealTimeFaceDetection extends JPanel {
      */
     @Override
     protected void paintComponent(Graphics g) {
+        long t = metrics.start();
         super.paintComponent(g);
         if (bufferedImage != null) {
             g.drawImage(bufferedImage, 0, 0, this); // Dibuixa la imatge processada
+        } else {
+            g.drawString(error != null ? error : "Obrint la càmera...", 20, 30); // Encara s'està preparant, o ha fallat
         }
+        metrics.stop("pintat", t);
+        metrics.drawOverlay((Graphics2D) g); // FPS i latències, si està activat a les preferències
+        metrics.framePainted();
     }
 
     /**
@@ -140,7 +282,7 @@ public class RealTimeFaceDetection extends JPanel {
      * @param mat Matriu d'OpenCV a convertir.
      * @return BufferedImage resultant.
      */
-    private BufferedImage matToBufferedImage(Mat mat) {
+    static BufferedImage matToBufferedImage(Mat mat) {
         int width = mat.width();
         int height = mat.height();
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
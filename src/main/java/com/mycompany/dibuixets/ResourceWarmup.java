@@ -0,0 +1,291 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.NativeLoader;
+import com.mycompany.dibuixets.dll.Preferences;
+import net.sourceforge.tess4j.ITesseract;
+import net.sourceforge.tess4j.TesseractException;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Preparació en segon pla dels recursos lents mentre es mostra el menú.
+ * <p>
+ * Carregar OpenCV, obrir la càmera, llegir el XML de la cascada i inicialitzar
+ * Tesseract costa uns quants segons. {@link #start()} ho posa en marxa en fils
+ * de fons en paral·lel (la càmera, el detector i el motor d'OCR comencen tan
+ * bon punt OpenCV està carregat) i cada recurs té un {@link CompletableFuture}
+ * que indica quan està a punt.
+ * </p>
+ *
+ * <p>
+ * Els panells obtenen la càmera, el detector de cares i el motor d'OCR amb
+ * {@link #takeCamera()}, {@link #takeFaceDetector()} i
+ * {@link #takeOcrEngine()}. El primer panell que en demana un es queda el que
+ * s'ha preparat (esperant-lo si encara no ha acabat); els següents, o si
+ * {@link #start()} no s'ha cridat, en creen un de nou com abans. La càmera no
+ * es pot obrir dues vegades, per això tots els panells la demanen aquí.</p>
+ *
+ * <p>
+ * La càmera que fan servir els panells és la de la clau {@code cameraIndex}
+ * de data/preferencias.txt (per defecte la 0). Totes les càmeres s'obren amb
+ * el motor de captura de la clau {@code cameraBackend} ({@code any},
+ * {@code dshow}, {@code msmf}, {@code v4l2} o {@code avfoundation}); en
+ * Windows és {@code dshow} per defecte, perquè obre la càmera molt més de
+ * pressa que MSMF. La clau {@code warmupCamera,false} evita obrir-la abans
+ * que es faci servir.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public final class ResourceWarmup {
+
+    private static final Logger LOG = Logger.getLogger(ResourceWarmup.class.getName());
+
+    private static ResourceWarmup shared; // Preparació en curs, o null si no s'ha començat
+
+    private final long startNanos = System.nanoTime();
+    private final int cameraIndex = defaultCameraIndex();
+    private final ExecutorService executor;
+    private final CompletableFuture<Void> opencv;
+    private final CompletableFuture<VideoCapture> camera;
+    private final CompletableFuture<FaceDetectorBackend> faceDetector;
+    private final CompletableFuture<ITesseract> ocrEngine;
+
+    // Cada recurs preparat només es lliura a un panell
+    private final AtomicBoolean cameraTaken = new AtomicBoolean();
+    private final AtomicBoolean faceDetectorTaken = new AtomicBoolean();
+    private final AtomicBoolean ocrEngineTaken = new AtomicBoolean();
+
+    private ResourceWarmup() {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(3, r -> {
+            Thread t = new Thread(r, "warmup-" + count.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1); // Que el menú continuï responent
+            return t;
+        });
+        opencv = CompletableFuture.runAsync(NativeLoader::load, executor);
+        camera = Boolean.parseBoolean(Preferences.get("warmupCamera", "true"))
+                ? opencv.thenApplyAsync(v -> timed("càmera", () -> openDevice(cameraIndex)), executor)
+                : CompletableFuture.completedFuture(null);
+        faceDetector = opencv.thenApplyAsync(v -> timed("detector de cares", FaceDetectorBackend::fromPreferences), executor);
+        // Tesseract no depèn d'OpenCV: comença de seguida
+        ocrEngine = CompletableFuture.supplyAsync(() -> timed("OCR", ResourceWarmup::createWarmOcrEngine), executor);
+        CompletableFuture.allOf(opencv, camera, faceDetector, ocrEngine)
+                .whenComplete((v, e) -> executor.shutdown());
+    }
+
+    /**
+     * Comença a preparar els recursos, si no s'havia començat ja.
+     *
+     * @return La preparació en curs.
+     */
+    public static synchronized ResourceWarmup start() {
+        if (shared == null) {
+            shared = new ResourceWarmup();
+        }
+        return shared;
+    }
+
+    /**
+     * @return Es completa quan OpenCV està carregat.
+     */
+    public CompletableFuture<Void> opencvReady() {
+        return opencv;
+    }
+
+    /**
+     * @return Es completa quan la càmera està oberta (amb {@code null} si no s'obre per endavant).
+     */
+    public CompletableFuture<VideoCapture> cameraReady() {
+        return camera;
+    }
+
+    /**
+     * @return Es completa quan el detector de cares està carregat.
+     */
+    public CompletableFuture<FaceDetectorBackend> faceDetectorReady() {
+        return faceDetector;
+    }
+
+    /**
+     * @return Es completa quan el motor d'OCR està inicialitzat.
+     */
+    public CompletableFuture<ITesseract> ocrEngineReady() {
+        return ocrEngine;
+    }
+
+    /**
+     * @return L'índex de la càmera configurada a les preferències.
+     */
+    public static int defaultCameraIndex() {
+        return (int) Preferences.getDouble("cameraIndex", 0);
+    }
+
+    /**
+     * Obté la càmera configurada: la que s'ha obert per endavant si encara no
+     * l'ha agafat cap panell, o una de nova.
+     *
+     * @return La càmera.
+     */
+    public static VideoCapture takeCamera() {
+        return takeCamera(defaultCameraIndex());
+    }
+
+    /**
+     * Obté una càmera pel seu índex. Si és la que s'ha obert per endavant i
+     * encara no l'ha agafat cap panell, es fa servir aquesta.
+     *
+     * @param index Índex del dispositiu.
+     * @return La càmera.
+     */
+    public static VideoCapture takeCamera(int index) {
+        ResourceWarmup warmup = current();
+        if (warmup != null && warmup.cameraIndex == index && warmup.cameraTaken.compareAndSet(false, true)) {
+            VideoCapture prepared = join(warmup.camera);
+            if (prepared != null && prepared.isOpened()) {
+                return prepared;
+            }
+            if (prepared != null) {
+                prepared.release();
+            }
+        }
+        NativeLoader.load();
+        return openDevice(index);
+    }
+
+    /**
+     * Obre un dispositiu amb el motor de captura configurat, sense passar per
+     * la càmera preparada.
+     *
+     * @param index Índex del dispositiu.
+     * @return La càmera (cal comprovar {@code isOpened()}).
+     */
+    static VideoCapture openDevice(int index) {
+        return new VideoCapture(index, cameraBackend());
+    }
+
+    /**
+     * @return El motor de captura de la clau {@code cameraBackend}.
+     */
+    static int cameraBackend() {
+        boolean windows = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+        String backend = Preferences.get("cameraBackend", windows ? "dshow" : "any");
+        switch (backend.toLowerCase()) {
+            case "dshow":
+                return Videoio.CAP_DSHOW;
+            case "msmf":
+                return Videoio.CAP_MSMF;
+            case "v4l2":
+                return Videoio.CAP_V4L2;
+            case "avfoundation":
+                return Videoio.CAP_AVFOUNDATION;
+            case "any":
+                return Videoio.CAP_ANY;
+            default:
+                LOG.log(Level.WARNING, "Motor de captura desconegut: {0}", backend);
+                return Videoio.CAP_ANY;
+        }
+    }
+
+    /**
+     * Indica si una càmera ja està oberta per endavant i ningú l'ha agafada.
+     * En aquest cas no es pot tornar a obrir per comprovar si existeix.
+     *
+     * @param index Índex del dispositiu.
+     * @return {@code true} si la té la preparació en segon pla.
+     */
+    public static boolean holdsCamera(int index) {
+        ResourceWarmup warmup = current();
+        if (warmup == null || warmup.cameraIndex != index || warmup.cameraTaken.get()) {
+            return false;
+        }
+        VideoCapture prepared = join(warmup.camera);
+        return prepared != null && prepared.isOpened();
+    }
+
+    /**
+     * Obté un detector de cares: el preparat si encara no l'ha agafat cap
+     * panell, o un de nou.
+     *
+     * @return El detector de cares configurat a les preferències.
+     */
+    public static FaceDetectorBackend takeFaceDetector() {
+        ResourceWarmup warmup = current();
+        if (warmup != null && warmup.faceDetectorTaken.compareAndSet(false, true)) {
+            FaceDetectorBackend prepared = join(warmup.faceDetector);
+            if (prepared != null) {
+                return prepared;
+            }
+        }
+        NativeLoader.load();
+        return FaceDetectorBackend.fromPreferences();
+    }
+
+    /**
+     * Obté un motor d'OCR: el preparat si encara no l'ha agafat cap panell, o
+     * un de nou.
+     *
+     * @return El motor d'OCR.
+     */
+    public static ITesseract takeOcrEngine() {
+        ResourceWarmup warmup = current();
+        if (warmup != null && warmup.ocrEngineTaken.compareAndSet(false, true)) {
+            ITesseract prepared = join(warmup.ocrEngine);
+            if (prepared != null) {
+                return prepared;
+            }
+        }
+        return TextRecognition.createEngine();
+    }
+
+    private static synchronized ResourceWarmup current() {
+        return shared;
+    }
+
+    /**
+     * Espera un recurs. Si la preparació ha fallat es retorna {@code null} i
+     * el panell el torna a crear, de manera que l'error es veu on es fa servir.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "La preparació en segon pla ha fallat", e);
+            return null;
+        }
+    }
+
+    private <T> T timed(String name, Supplier<T> task) {
+        long start = System.nanoTime();
+        T result = task.get();
+        long now = System.nanoTime();
+        LOG.log(Level.INFO, "{0} a punt en {1} ms ({2} ms des de l''inici)",
+                new Object[]{name, (now - start) / 1_000_000, (now - startNanos) / 1_000_000});
+        return result;
+    }
+
+    /**
+     * Crea un motor i fa un primer reconeixement sobre una imatge buida, que és
+     * quan Tesseract carrega la llibreria nativa i les dades de l'idioma.
+     */
+    private static ITesseract createWarmOcrEngine() {
+        ITesseract engine = TextRecognition.createEngine();
+        try {
+            engine.doOCR(new BufferedImage(32, 32, BufferedImage.TYPE_BYTE_GRAY));
+        } catch (TesseractException | Error e) {
+            // L'error es tornarà a produir, i es mostrarà, quan el panell faci servir el motor
+            LOG.log(Level.FINE, "No s'ha pogut escalfar Tesseract", e);
+        }
+        return engine;
+    }
+}
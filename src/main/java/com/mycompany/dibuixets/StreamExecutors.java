@@ -0,0 +1,187 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Model de fils per a molts fluxos de vídeo simultanis.
+ * <p>
+ * Es distingeixen tres tipus de feina:
+ * </p>
+ * <ul>
+ * <li><b>E/S que bloqueja en Java</b> (clients HTTP, esperes entre etapes):
+ * {@link #newIoExecutor(String)} crea un fil per tasca. A partir de Java 21
+ * són fils virtuals, de manera que milers de clients no costen milers de fils
+ * del sistema; amb Java 17 són fils normals d'un pool que creix a demanda.</li>
+ * <li><b>Càlcul</b> (detecció, OCR, croma): {@link #callCpu(Callable)} ho
+ * executa al pool compartit {@link #cpu()}, amb tants fils com nuclis (clau
+ * {@code cpuThreads} de data/preferencias.txt). Per molts fluxos que hi hagi,
+ * mai hi ha més fils calculant que nuclis. El fan servir els que processen
+ * molts fluxos alhora ({@link CameraGrid} i {@link PipelineReplay}); els
+ * panells d'una sola càmera ja tenen un únic fil de càlcul i detecten en el
+ * seu propi fil.</li>
+ * <li><b>Captura de la càmera</b>: sempre amb fils normals, els de
+ * {@link PanelLifecycle#start}. {@code VideoCapture.read} bloqueja dins del
+ * codi natiu, i un fil virtual bloquejat en codi natiu ocupa el fil portador,
+ * de manera que amb unes quantes càmeres s'aturarien tots els altres fils
+ * virtuals.</li>
+ * </ul>
+ *
+ * <p>
+ * La clau {@code virtualThreads,false} desactiva els fils virtuals encara que
+ * la màquina virtual els suporti. El projecte es compila per a Java 17, per
+ * això els fils virtuals es creen per reflexió.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public final class StreamExecutors {
+
+    private static final Logger LOG = Logger.getLogger(StreamExecutors.class.getName());
+
+    private static final boolean VIRTUAL = Boolean.parseBoolean(Preferences.get("virtualThreads", "true"))
+            && virtualThreadFactory("prova") != null;
+
+    private static ExecutorService cpu; // Pool de càlcul compartit, es crea la primera vegada
+
+    private StreamExecutors() {
+    }
+
+    /**
+     * @return {@code true} si les tasques d'E/S fan servir fils virtuals.
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL;
+    }
+
+    /**
+     * Crea un executor per a tasques d'E/S: un fil virtual per tasca si és
+     * possible, o un pool de fils dimoni que creix a demanda.
+     *
+     * @param name Prefix del nom dels fils.
+     * @return L'executor.
+     */
+    public static ExecutorService newIoExecutor(String name) {
+        if (VIRTUAL) {
+            try {
+                Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) perTask.invoke(null, virtualThreadFactory(name));
+            } catch (ReflectiveOperationException e) {
+                LOG.log(Level.WARNING, "No s'han pogut crear fils virtuals", e);
+            }
+        }
+        return Executors.newCachedThreadPool(platformThreadFactory(name));
+    }
+
+    /**
+     * Pool compartit per a les etapes de càlcul, amb un fil per nucli.
+     *
+     * @return El pool.
+     */
+    public static synchronized ExecutorService cpu() {
+        if (cpu == null) {
+            int threads = (int) Preferences.getDouble("cpuThreads", Runtime.getRuntime().availableProcessors());
+            cpu = Executors.newFixedThreadPool(Math.max(1, threads), platformThreadFactory("cpu"));
+        }
+        return cpu;
+    }
+
+    /**
+     * Executa una etapa de càlcul al pool compartit i n'espera el resultat.
+     * Com que cada flux espera la seva pròpia etapa, la cua del pool mai té
+     * més tasques que fluxos actius.
+     * <p>
+     * Les etapes treballen sobre matrius del fil que crida, i cancel·lar no
+     * atura el codi natiu. Per això, si s'interromp l'espera quan l'etapa ja ha
+     * començat, s'espera igualment que acabi i es retorna amb el fil marcat
+     * com a interromput; així el que crida no allibera res que encara es faci
+     * servir. Si l'etapa encara no havia començat, ja no s'executa.</p>
+     *
+     * @param task L'etapa.
+     * @return El resultat de l'etapa.
+     * @throws InterruptedException Si s'interromp l'espera abans que l'etapa comenci.
+     */
+    public static <T> T callCpu(Callable<T> task) throws InterruptedException {
+        AtomicBoolean claimed = new AtomicBoolean();
+        Future<T> future = cpu().submit(() -> claimed.compareAndSet(false, true) ? task.call() : null);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (claimed.compareAndSet(false, true)) {
+                throw e; // Encara era a la cua: ja no s'executarà
+            }
+            T result = awaitUninterruptibly(future);
+            Thread.currentThread().interrupt();
+            return result;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static <T> T awaitUninterruptibly(Future<T> future) {
+        while (true) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                // Es torna a marcar en acabar
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    /**
+     * @return L'excepció de l'etapa, per llançar-la tal com és.
+     */
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * Fàbrica de fils dimoni numerats.
+     *
+     * @param name Prefix del nom dels fils.
+     * @return La fàbrica.
+     */
+    public static ThreadFactory platformThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Equivalent a {@code Thread.ofVirtual().name(name + "-", 1).factory()}.
+     *
+     * @return La fàbrica, o {@code null} si la màquina virtual no té fils virtuals.
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // Java 17-20
+        }
+    }
+}
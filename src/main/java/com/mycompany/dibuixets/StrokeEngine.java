@@ -0,0 +1,204 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Motor de traços per al dibuix lliure.
+ * <p>
+ * Recull les mostres del ratolí, les suavitza amb corbes Catmull-Rom i les
+ * rasteritza per lots: a cada tic de pantalla tots els segments pendents es
+ * dibuixen amb una sola crida a {@code Imgproc.polylines} amb antialiàsing.
+ * Cada lot retorna el rectangle modificat perquè el panell només hagi de
+ * convertir i repintar aquesta zona.
+ * </p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class StrokeEngine {
+
+    // Distància aproximada (en píxels) entre punts interpolats
+    private static final double STEP = 2.0;
+
+    private final List<Point> points = new ArrayList<>(); // Mostres encara necessàries per interpolar
+    private final List<Point> stroke = new ArrayList<>(); // Corba completa del traç actual
+    private int drawnSegments = 0; // Segments de "points" ja rasteritzats
+    private Scalar color;
+    private int thickness;
+    private boolean active = false;
+
+    /**
+     * Comença un traç nou.
+     *
+     * @param x Coordenada x del primer punt.
+     * @param y Coordenada y del primer punt.
+     * @param color Color del traç (BGR).
+     * @param thickness Gruix del traç.
+     */
+    public void beginStroke(int x, int y, Scalar color, int thickness) {
+        points.clear();
+        stroke.clear();
+        points.add(new Point(x, y));
+        drawnSegments = 0;
+        this.color = color;
+        this.thickness = thickness;
+        active = true;
+    }
+
+    /**
+     * Afegeix una mostra del ratolí al traç actual. No dibuixa res.
+     *
+     * @param x Coordenada x.
+     * @param y Coordenada y.
+     */
+    public void addSample(int x, int y) {
+        if (!active) {
+            return;
+        }
+        Point last = points.get(points.size() - 1);
+        if (last.x == x && last.y == y) {
+            return; // Mostra repetida
+        }
+        points.add(new Point(x, y));
+    }
+
+    /**
+     * Indica si hi ha segments pendents de dibuixar.
+     *
+     * @return {@code true} si cal cridar {@link #flush(Mat)}.
+     */
+    public boolean hasPending() {
+        // L'últim segment espera la mostra següent per tenir la tangent correcta
+        return active && points.size() - 2 > drawnSegments;
+    }
+
+    /**
+     * Dibuixa els segments pendents que ja tenen prou context per interpolar.
+     *
+     * @param target Imatge on es dibuixa.
+     * @return El rectangle modificat o {@code null} si no s'ha dibuixat res.
+     */
+    public Rect flush(Mat target) {
+        return rasterize(target, points.size() - 2);
+    }
+
+    /**
+     * Acaba el traç dibuixant tots els segments que quedin.
+     *
+     * @param target Imatge on es dibuixa.
+     * @return El rectangle modificat o {@code null} si no s'ha dibuixat res.
+     */
+    public Rect endStroke(Mat target) {
+        if (!active) {
+            return null;
+        }
+        Rect dirty;
+        if (points.size() == 1) {
+            // Un sol clic: es dibuixa un punt
+            Point p = points.get(0);
+            Imgproc.circle(target, p, Math.max(1, thickness / 2), color, -1, Imgproc.LINE_AA);
+            stroke.add(p);
+            dirty = bounds(Collections.singletonList(p), target);
+        } else {
+            dirty = rasterize(target, points.size() - 1);
+        }
+        active = false;
+        points.clear();
+        return dirty;
+    }
+
+    /**
+     * Retorna tots els punts interpolats de l'últim traç, tal com s'han dibuixat.
+     *
+     * @return Els punts del traç.
+     */
+    public List<Point> getStroke() {
+        return new ArrayList<>(stroke);
+    }
+
+    /**
+     * Interpola i dibuixa els segments des de {@code drawnSegments} fins a {@code upTo}.
+     */
+    private Rect rasterize(Mat target, int upTo) {
+        if (!active || upTo <= drawnSegments) {
+            return null;
+        }
+        List<Point> curve = new ArrayList<>();
+        for (int i = drawnSegments; i < upTo; i++) {
+            Point p0 = points.get(Math.max(0, i - 1));
+            Point p1 = points.get(i);
+            Point p2 = points.get(i + 1);
+            Point p3 = points.get(Math.min(points.size() - 1, i + 2));
+            int steps = Math.max(1, (int) Math.ceil(distance(p1, p2) / STEP));
+            if (curve.isEmpty()) {
+                curve.add(p1);
+            }
+            for (int s = 1; s <= steps; s++) {
+                curve.add(catmullRom(p0, p1, p2, p3, (double) s / steps));
+            }
+        }
+        drawnSegments = upTo;
+        stroke.addAll(stroke.isEmpty() ? curve : curve.subList(1, curve.size()));
+
+        MatOfPoint polyline = new MatOfPoint();
+        polyline.fromList(curve);
+        Imgproc.polylines(target, Collections.singletonList(polyline), false, color, thickness, Imgproc.LINE_AA);
+        polyline.release();
+
+        // Només cal conservar el context del proper segment
+        int keep = Math.max(0, drawnSegments - 1);
+        if (keep > 0) {
+            points.subList(0, keep).clear();
+            drawnSegments -= keep;
+        }
+        return bounds(curve, target);
+    }
+
+    private static Point catmullRom(Point p0, Point p1, Point p2, Point p3, double t) {
+        double t2 = t * t;
+        double t3 = t2 * t;
+        double x = 0.5 * ((2 * p1.x) + (-p0.x + p2.x) * t
+                + (2 * p0.x - 5 * p1.x + 4 * p2.x - p3.x) * t2
+                + (-p0.x + 3 * p1.x - 3 * p2.x + p3.x) * t3);
+        double y = 0.5 * ((2 * p1.y) + (-p0.y + p2.y) * t
+                + (2 * p0.y - 5 * p1.y + 4 * p2.y - p3.y) * t2
+                + (-p0.y + 3 * p1.y - 3 * p2.y + p3.y) * t3);
+        return new Point(Math.round(x), Math.round(y));
+    }
+
+    private static double distance(Point a, Point b) {
+        return Math.hypot(a.x - b.x, a.y - b.y);
+    }
+
+    /**
+     * Calcula el rectangle que envolta els punts, ampliat amb el gruix del traç
+     * i retallat a la mida de la imatge.
+     */
+    private Rect bounds(List<Point> curve, Mat target) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Point p : curve) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+        int margin = thickness + 2;
+        int x0 = Math.max(0, (int) minX - margin);
+        int y0 = Math.max(0, (int) minY - margin);
+        int x1 = Math.min(target.cols(), (int) maxX + margin + 1);
+        int y1 = Math.min(target.rows(), (int) maxY + margin + 1);
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
+}
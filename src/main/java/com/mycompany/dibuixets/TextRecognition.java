@@ -1,13 +1,12 @@
 package com.mycompany.dibuixets;
 
 import com.mycompany.dibuixets.dll.Constants;
-import static com.mycompany.dibuixets.dll.Preferences.getOpenCVPath;
+import com.mycompany.dibuixets.dll.NativeLoader;
 import net.sourceforge.tess4j.ITesseract;
 import net.sourceforge.tess4j.Tesseract;
 import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.Videoio;
 import org.opencv.imgproc.Imgproc;
 
 import javax.swing.*;
@@ -28,11 +27,18 @@ import java.io.File;
  * @author Raül, Miquel Angel, Alejandro, Magi
  */
 public class TextRecognition extends JPanel {
-    private VideoCapture camera;  // Objeto para capturar video desde la cámara
+    private volatile VideoCapture camera;  // Objeto para capturar video desde la cámara (null mientras se abre)
     private Mat frame;  // Matriz que contiene el fotograma actual capturado desde la cámara
     private BufferedImage bufferedImage;  // Imagen en formato BufferedImage para mostrar en la interfaz gráfica
+    private volatile String error;  // Motivo por el que no se ha podido iniciar la captura, o null
     private String capturedImagePath = "images/captured_image.jpg";  // Ruta para guardar la imagen capturada
     private JFrame frameWindow;  // Ventana principal de la interfaz gráfica
+    private MotionDetector motionDetector;  // Detecta si la escena ha cambiado desde el último OCR
+    private ITesseract ocrEngine;  // Motor de OCR reutilizado entre fotogramas
+    private volatile boolean sceneChanged = true;  // Hay movimiento pendiente de reconocer
+    private PreRollBuffer preRoll;  // Últimos segundos de vídeo, se guardan al reconocer texto
+    private final PipelineMetrics metrics = new PipelineMetrics("TextRecognition");  // Tiempo de cada etapa
+    private final PanelLifecycle lifecycle = new PanelLifecycle("TextRecognition");  // Hilo de captura y recursos
 
     /**
      * Constructor de la clase {@code TextRecognition}.
@@ -41,11 +47,23 @@ public class TextRecognition extends JPanel {
      */
     public TextRecognition() {
         // Cargar OpenCV
-        System.load(getOpenCVPath());
+        NativeLoader.load();
 
-        // Inicializar la cámara
-        camera = new VideoCapture(0, Videoio.CAP_DSHOW);
-        frame = new Mat();
+        // La cámara y el motor de OCR se obtienen en el hilo de captura, para que la ventana aparezca enseguida
+        frame = lifecycle.mat(new Mat());
+
+        preRoll = new PreRollBuffer(new File("videos/preroll"));
+        lifecycle.onClose(preRoll::close);
+        lifecycle.onClose(metrics::unregister);
+
+        // El OCR solo se repite si algo se ha movido delante de la cámara
+        motionDetector = new MotionDetector();
+        lifecycle.onClose(motionDetector::release);
+        motionDetector.addListener(result -> {
+            if (result.isMoving()) {
+                sceneChanged = true;
+            }
+        });
 
         // Crear botón para guardar imagen
         JButton saveButton = new JButton("Guardar Imagen");
@@ -56,8 +74,7 @@ public class TextRecognition extends JPanel {
         backButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                // Cierra solo la ventana de la cámara (no la aplicación completa)
-                camera.release();
+                // Cierra solo la ventana de la cámara (no la aplicación completa); el ciclo de vida libera la cámara
                 frameWindow.dispose();
             }
         });
@@ -77,41 +94,77 @@ public class TextRecognition extends JPanel {
         frameWindow.add(this, BorderLayout.CENTER); // Panel con la detección de texto en el centro
         frameWindow.add(buttonPanel, BorderLayout.SOUTH); // Los botones al sur
         frameWindow.setSize(640, 480);
-        frameWindow.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frameWindow.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        lifecycle.bindTo(frameWindow);  // Pausa al minimizar, detiene el hilo y libera la cámara al cerrar
 
         // Centrar la ventana en la pantalla
         frameWindow.setLocationRelativeTo(null);  // Esto centra la ventana en la pantalla
         frameWindow.setVisible(true);
 
         // Iniciar procesamiento de fotogramas
-        new Thread(() -> {
-            while (true) {
-                if (camera.read(frame)) {
-                    Mat grayFrame = new Mat();
-                    Imgproc.cvtColor(frame, grayFrame, Imgproc.COLOR_BGR2GRAY);
-                    Imgproc.threshold(grayFrame, grayFrame, 100, 255, Imgproc.THRESH_BINARY);
-
-                    // Solo ejecutar OCR cada 6 segundos
+        lifecycle.start("captura", () -> {
+            // Si ResourceWarmup ya los ha preparado, llegan al instante
+            try {
+                ocrEngine = ResourceWarmup.takeOcrEngine();
+                camera = lifecycle.camera(ResourceWarmup.takeCamera());
+            } catch (RuntimeException e) {
+                showError("No se ha podido preparar el OCR: " + e.getMessage());
+                return;
+            }
+            if (!camera.isOpened()) {
+                showError("No se ha podido acceder a la cámara.");
+                return;
+            }
+            while (lifecycle.awaitRunning()) {
+                long t = metrics.start();
+                if (!camera.read(frame)) {
+                    Thread.sleep(10);  // Sin fotograma: no se hace girar el bucle en vacío
+                } else {
+                    t = metrics.stop("captura", t);
+                    motionDetector.update(frame);
+                    preRoll.offer(frame);
+                    t = metrics.stop("entrada", t);
+
+                    // Solo ejecutar OCR cada 6 segundos, y solo si la escena ha cambiado
                     long startTime = System.currentTimeMillis();
-                    if (startTime % 6000 < 100) { // Comprobar si han pasado 6 segundos
-                        String detectedText = detectText(grayFrame);
+                    if (startTime % 6000 < 100 && sceneChanged) { // Comprobar si han pasado 6 segundos
+                        sceneChanged = false;
+                        String detectedText;
+                        try (MatPool.PooledMat grayFrame = MatPool.acquire(frame.rows(), frame.cols(), CvType.CV_8UC1)) {
+                            binarize(frame, grayFrame);
+                            detectedText = detectText(grayFrame);
+                        }
                         if (detectedText != null && !detectedText.isEmpty()) {
                             System.out.println("Texto Detectado: " + detectedText);
+                            preRoll.trigger("text");  // Guarda los segundos previos al texto
                         }
+                        t = metrics.stop("ocr", t);
                     }
 
                     // Convertir a BufferedImage y redibujar
                     bufferedImage = matToBufferedImage(frame);
+                    metrics.stop("conversión", t);
+                    metrics.frameReady();
                     repaint();
 
-                    try {
-                        Thread.sleep(100); // Pequeña pausa para reducir carga
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+                    Thread.sleep(100); // Pequeña pausa para reducir carga (al cerrar se interrumpe)
                 }
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Deja el mensaje en el panel, en lugar de "Abriendo la cámara...", y
+     * avisa con un diálogo.
+     *
+     * @param message Motivo del error.
+     */
+    private void showError(String message) {
+        error = message;
+        SwingUtilities.invokeLater(() -> {
+            repaint();
+            JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
+        });
     }
 
     /**
@@ -122,10 +175,16 @@ public class TextRecognition extends JPanel {
      */
     @Override
     protected void paintComponent(Graphics g) {
+        long t = metrics.start();
         super.paintComponent(g);
         if (bufferedImage != null) {
             g.drawImage(bufferedImage, 0, 0, this);  // Dibuja la imagen en el panel
+        } else {
+            g.drawString(error != null ? error : "Abriendo la cámara...", 20, 30);  // Todavía se está preparando, o ha fallado
         }
+        metrics.stop("pintado", t);
+        metrics.drawOverlay((Graphics2D) g);  // FPS y latencias, si está activado en las preferencias
+        metrics.framePainted();
     }
 
     /**
@@ -135,7 +194,7 @@ public class TextRecognition extends JPanel {
      * @param mat El objeto {@code Mat} que contiene la imagen a convertir.
      * @return Un objeto {@code BufferedImage} equivalente a la imagen contenida en el {@code Mat}.
      */
-    private BufferedImage matToBufferedImage(Mat mat) {
+    static BufferedImage matToBufferedImage(Mat mat) {
         int width = mat.width();
         int height = mat.height();
         int channels = mat.channels();
@@ -150,6 +209,30 @@ public class TextRecognition extends JPanel {
         return image;
     }
 
+    /**
+     * Prepara un fotograma para el OCR: escala de grises y umbral binario.
+     *
+     * @param frame Fotograma en color (BGR).
+     * @param dst Matriz donde se deja el resultado.
+     */
+    static void binarize(Mat frame, Mat dst) {
+        Imgproc.cvtColor(frame, dst, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.threshold(dst, dst, 100, 255, Imgproc.THRESH_BINARY);
+    }
+
+    /**
+     * Crea un motor de Tesseract configurado para inglés.
+     * Cada motor solo se puede usar desde un hilo a la vez.
+     *
+     * @return El motor de OCR.
+     */
+    static ITesseract createEngine() {
+        ITesseract instance = new Tesseract();
+        instance.setDatapath("src/tessdata");
+        instance.setLanguage("eng");  // Establece el idioma a inglés
+        return instance;
+    }
+
     /**
      * Detecta el texto de una imagen usando OCR con Tesseract.
      * 
@@ -157,13 +240,9 @@ public class TextRecognition extends JPanel {
      * @return El texto detectado en el fotograma o {@code null} si no se detecta texto.
      */
     private String detectText(Mat frame) {
-        ITesseract instance = new Tesseract();
-        instance.setDatapath("src/tessdata");
-        instance.setLanguage("eng");  // Establece el idioma a inglés
-
         BufferedImage image = matToBufferedImage(frame);  // Convierte el fotograma a BufferedImage
         try {
-            return instance.doOCR(image);  // Realiza el OCR sobre la imagen
+            return ocrEngine.doOCR(image);  // El motor se reutiliza entre fotogramas
         } catch (Exception e) {
             e.printStackTrace();  // Captura cualquier excepción en caso de error durante el OCR
             return null;
@@ -175,7 +254,7 @@ public class TextRecognition extends JPanel {
      * El usuario ingresa el nombre del archivo y la imagen se guarda en la carpeta "images".
      */
     private void saveCapturedImage() {
-        if (camera.isOpened() && frame != null && !frame.empty()) { // Comprovar que la càmera està oberta i el frame no està buit
+        if (camera != null && camera.isOpened() && frame != null && !frame.empty()) { // Comprovar que la càmera està oberta i el frame no està buit
             String fileName = JOptionPane.showInputDialog("Introduce el nombre para guardar la imagen:");
             if (fileName != null && !fileName.trim().isEmpty()) {
                 File outputFile = new File("images/" + fileName + ".jpg");
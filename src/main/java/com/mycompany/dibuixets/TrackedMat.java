@@ -0,0 +1,59 @@
+package com.mycompany.dibuixets;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+/**
+ * Matriu d'OpenCV comptabilitzada per {@link MatTracker} que s'allibera en
+ * tancar-la.
+ * <p>
+ * Està pensada per a les matrius temporals que es creen a cada fotograma,
+ * amb try-with-resources:
+ * </p>
+ * <pre>
+ * try (TrackedMat gray = new TrackedMat()) {
+ *     Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+ *     ...
+ * }
+ * </pre>
+ * Si una matriu es perd sense tancar-la, el recol·lector acaba alliberant la
+ * memòria nativa però {@link MatTracker} ho compta com una fuita i, en mode
+ * de depuració, indica on s'havia creat.
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class TrackedMat extends Mat implements AutoCloseable {
+
+    private final MatTracker.Registration registration;
+
+    public TrackedMat() {
+        super();
+        registration = MatTracker.register(this);
+    }
+
+    public TrackedMat(int rows, int cols, int type) {
+        super(rows, cols, type);
+        registration = MatTracker.register(this);
+    }
+
+    public TrackedMat(int rows, int cols, int type, Scalar s) {
+        super(rows, cols, type, s);
+        registration = MatTracker.register(this);
+    }
+
+    public TrackedMat(Size size, int type) {
+        super(size, type);
+        registration = MatTracker.register(this);
+    }
+
+    /**
+     * Allibera la memòria nativa i treu la matriu del comptatge. Es pot cridar
+     * més d'una vegada.
+     */
+    @Override
+    public void close() {
+        release();
+        registration.close();
+    }
+}
@@ -0,0 +1,356 @@
+package com.mycompany.dibuixets;
+
+import com.mycompany.dibuixets.dll.Preferences;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoWriter;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Gravació de vídeo asíncrona amb un fil codificador propi.
+ * <p>
+ * El fil de captura només copia el fotograma en un dels buffers reservats i
+ * el deixa en una cua de mida fixa; la codificació amb {@link VideoWriter} i
+ * l'escriptura a disc es fan en un altre fil. Si el codificador no dona
+ * l'abast i la cua és plena, el fotograma es descarta i es compta, però la
+ * captura i la previsualització no s'esperen mai.
+ * </p>
+ *
+ * <p>
+ * La gravació es divideix en segments: es comença un fitxer nou quan
+ * l'actual supera una mida o una durada màximes, o quan canvia la mida dels
+ * fotogrames. Es configura amb les claus {@code recordCodec}
+ * ({@code mjpg}, {@code xvid}, {@code mp4v} o {@code h264}), {@code recordFps},
+ * {@code recordSegmentMB} i {@code recordSegmentSeconds} de
+ * data/preferencias.txt.</p>
+ *
+ * <p>
+ * Si no es pot escriure (disc ple, còdec no disponible...), la gravació
+ * s'atura sola i s'avisa el subscriptor de {@link #setErrorListener} al fil
+ * de Swing, perquè el panell ho mostri i torni a l'estat inicial.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public class VideoRecorder {
+
+    /**
+     * Còdec i contenidor de sortida.
+     */
+    public enum Codec {
+        MJPG("MJPG", "avi"),
+        XVID("XVID", "avi"),
+        MP4V("mp4v", "mp4"),
+        H264("avc1", "mp4");
+
+        private final String fourcc;
+        private final String container;
+
+        Codec(String fourcc, String container) {
+            this.fourcc = fourcc;
+            this.container = container;
+        }
+
+        public int getFourcc() {
+            return VideoWriter.fourcc(fourcc.charAt(0), fourcc.charAt(1), fourcc.charAt(2), fourcc.charAt(3));
+        }
+
+        public String getContainer() {
+            return container;
+        }
+    }
+
+    private static final int SIZE_CHECK_INTERVAL = 30; // Fotogrames entre comprovacions de la mida del fitxer
+
+    private final File directory;
+    private final String prefix;
+    private final Codec codec;
+    private final double fps;
+    private final long maxSegmentBytes;
+    private final long maxSegmentNanos;
+
+    private final BlockingQueue<Mat> queue; // Fotogrames pendents de codificar
+    private final BlockingQueue<Mat> free; // Buffers disponibles per copiar-hi fotogrames
+    private final Thread encoderThread;
+    private volatile boolean running = true;
+    private final Object offerLock = new Object(); // Evita que un fotograma entri a la cua després d'aturar
+    private String failure; // Motiu de l'error d'escriptura, o null (protegit per offerLock)
+    private Consumer<String> errorListener; // Protegit per offerLock
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile int segments = 0;
+
+    // Estat del segment actual (només el fa servir el fil codificador)
+    private VideoWriter writer;
+    private File segmentFile;
+    private Size segmentSize;
+    private long segmentStart;
+    private long segmentFrames;
+
+    /**
+     * Crea un gravador amb la configuració de data/preferencias.txt i comença
+     * el fil codificador.
+     *
+     * @param directory Directori on es desen els vídeos.
+     * @param prefix Prefix del nom dels fitxers.
+     * @return El gravador.
+     */
+    public static VideoRecorder fromPreferences(File directory, String prefix) {
+        Codec codec;
+        try {
+            codec = Codec.valueOf(Preferences.get("recordCodec", "mjpg").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            codec = Codec.MJPG;
+        }
+        return new VideoRecorder(directory, prefix, codec,
+                Preferences.getDouble("recordFps", 25),
+                32,
+                (long) (Preferences.getDouble("recordSegmentMB", 500) * 1024 * 1024),
+                (long) Preferences.getDouble("recordSegmentSeconds", 600));
+    }
+
+    /**
+     * Crea un gravador i comença el fil codificador.
+     *
+     * @param directory Directori on es desen els vídeos.
+     * @param prefix Prefix del nom dels fitxers.
+     * @param codec Còdec i contenidor.
+     * @param fps Fotogrames per segon del vídeo.
+     * @param queueCapacity Fotogrames que poden esperar a la cua.
+     * @param maxSegmentBytes Mida màxima d'un segment (0 sense límit).
+     * @param maxSegmentSeconds Durada màxima d'un segment (0 sense límit).
+     */
+    public VideoRecorder(File directory, String prefix, Codec codec, double fps, int queueCapacity,
+            long maxSegmentBytes, long maxSegmentSeconds) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.codec = codec;
+        this.fps = fps;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentNanos = TimeUnit.SECONDS.toNanos(maxSegmentSeconds);
+        int capacity = Math.max(1, queueCapacity);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.add(new Mat());
+        }
+        directory.mkdirs();
+
+        encoderThread = new Thread(this::encodeLoop, "video-encoder-" + prefix);
+        encoderThread.setDaemon(true);
+        encoderThread.start();
+    }
+
+    /**
+     * Afegeix un fotograma a la gravació sense bloquejar.
+     *
+     * @param frame Fotograma en color (BGR). Es copia, de manera que es pot
+     * reutilitzar tan bon punt torna el mètode.
+     * @return {@code false} si s'ha descartat perquè la cua era plena.
+     */
+    public boolean offer(Mat frame) {
+        if (frame.empty()) {
+            return false;
+        }
+        synchronized (offerLock) {
+            if (!running) {
+                return false;
+            }
+            offered.incrementAndGet();
+            Mat buffer = free.poll();
+            if (buffer == null) {
+                dropped.incrementAndGet(); // Tots els buffers estan esperant el codificador
+                return false;
+            }
+            frame.copyTo(buffer);
+            queue.add(buffer); // Sempre hi cap: hi ha tants buffers com places a la cua
+            return true;
+        }
+    }
+
+    /**
+     * Atura la gravació, codifica els fotogrames pendents i tanca el fitxer.
+     * Espera el fil codificador, així que no s'ha de cridar des del fil de
+     * Swing: per als botons hi ha {@link #stopInBackground(Runnable)}.
+     */
+    public void stop() {
+        synchronized (offerLock) {
+            running = false; // A partir d'aquí cap fotograma pot entrar a la cua
+        }
+        try {
+            encoderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Si el codificador ha acabat abans d'hora (error o interrupció) pot quedar algun buffer a la cua
+        queue.drainTo(free);
+        for (Mat m : free) {
+            m.release();
+        }
+        free.clear();
+    }
+
+    /**
+     * Atura la gravació en un fil de fons.
+     *
+     * @param onStopped Es crida al fil de Swing quan el fitxer ja està tancat.
+     */
+    public void stopInBackground(Runnable onStopped) {
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                stop();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                onStopped.run();
+            }
+        }.execute();
+    }
+
+    /**
+     * Indica a qui s'ha d'avisar si la gravació s'atura per un error. Si ja
+     * ha fallat, s'avisa de seguida.
+     *
+     * @param listener Rep el motiu de l'error, al fil de Swing.
+     */
+    public void setErrorListener(Consumer<String> listener) {
+        String failed;
+        synchronized (offerLock) {
+            errorListener = listener;
+            failed = failure;
+        }
+        if (failed != null) {
+            SwingUtilities.invokeLater(() -> listener.accept(failed));
+        }
+    }
+
+    public boolean isRecording() {
+        return running;
+    }
+
+    /**
+     * @return {@code true} si la gravació s'ha aturat per un error d'escriptura.
+     */
+    public boolean isFailed() {
+        synchronized (offerLock) {
+            return failure != null;
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getOffered() {
+        return offered.get();
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d fotogrames gravats, %d descartats, %d segments", written.get(), dropped.get(), segments);
+    }
+
+    private void encodeLoop() {
+        try {
+            while (running || !queue.isEmpty()) {
+                Mat frame = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                try {
+                    write(frame);
+                } catch (RuntimeException e) {
+                    // Si no es pot escriure, s'atura la gravació en lloc de fallar a cada fotograma
+                    System.err.println("Error gravant el vídeo: " + e.getMessage());
+                    fail(String.valueOf(e.getMessage()));
+                } finally {
+                    free.add(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSegment();
+        }
+    }
+
+    private void fail(String message) {
+        Consumer<String> listener;
+        synchronized (offerLock) {
+            running = false; // Com a stop(): ja no entra cap fotograma més a la cua
+            failure = message;
+            listener = errorListener;
+        }
+        queue.drainTo(free);
+        if (listener != null) {
+            SwingUtilities.invokeLater(() -> listener.accept(message));
+        }
+    }
+
+    private void write(Mat frame) {
+        Size size = frame.size();
+        if (writer == null || needsRotation(size)) {
+            closeSegment();
+            openSegment(size);
+        }
+        writer.write(frame);
+        segmentFrames++;
+        written.incrementAndGet();
+    }
+
+    private boolean needsRotation(Size size) {
+        if (size.width != segmentSize.width || size.height != segmentSize.height) {
+            return true;
+        }
+        if (maxSegmentNanos > 0 && System.nanoTime() - segmentStart >= maxSegmentNanos) {
+            return true;
+        }
+        // Consultar la mida del fitxer és una crida al sistema: no es fa a cada fotograma
+        return maxSegmentBytes > 0 && segmentFrames % SIZE_CHECK_INTERVAL == 0
+                && segmentFile.length() >= maxSegmentBytes;
+    }
+
+    private void openSegment(Size size) {
+        String stamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        segmentFile = new File(directory, String.format("%s_%s_%03d.%s", prefix, stamp, segments, codec.getContainer()));
+        writer = new VideoWriter(segmentFile.getAbsolutePath(), codec.getFourcc(), fps, size, true);
+        if (!writer.isOpened()) {
+            writer.release();
+            writer = null;
+            throw new IllegalStateException("No s'ha pogut obrir el fitxer de vídeo " + segmentFile + " amb el còdec " + codec);
+        }
+        segmentSize = size;
+        segmentStart = System.nanoTime();
+        segmentFrames = 0;
+        segments++;
+    }
+
+    private void closeSegment() {
+        if (writer != null) {
+            writer.release();
+            writer = null;
+        }
+    }
+}
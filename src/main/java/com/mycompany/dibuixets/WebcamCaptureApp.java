@@ -1,7 +1,7 @@
 package com.mycompany.dibuixets;
 
 import com.mycompany.dibuixets.dll.Constants;
-import static com.mycompany.dibuixets.dll.Preferences.getOpenCVPath;
+import com.mycompany.dibuixets.dll.NativeLoader;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
 import org.opencv.imgcodecs.Imgcodecs;
@@ -13,6 +13,9 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
 import org.opencv.imgproc.Imgproc;
 
@@ -28,13 +31,24 @@ import org.opencv.imgproc.Imgproc;
  * y al presionar el botón "Capturar", se guarda la imagen en el disco con el nombre ingresado
  * por el usuario. </p>
  * 
+ * <p> También permite capturar ráfagas de N fotogramas y timelapses (un fotograma
+ * cada T segundos) en archivos numerados, escritos en segundo plano por un
+ * {@link ImageSequenceWriter}. </p>
+ * 
  * @author Raül, Miquel Angel, Alejandro, Magi
  */
 public class WebcamCaptureApp extends JFrame {
     private JLabel imageLabel;  // Etiqueta para mostrar la imagen capturada
     private VideoCapture capture;  // Objeto que maneja la captura de video
     private Mat frame;  // Matriz que contiene el cuadro de video actual
-    private boolean capturing = false;  // Estado de la captura de video
+    private final PanelLifecycle lifecycle = new PanelLifecycle("WebcamCaptureApp");  // Hilo de captura y recursos
+    private volatile VideoRecorder recorder = null;  // Grabación del vídeo, o null si no se está grabando
+    private volatile ImageSequenceWriter burstWriter = null;  // Escritor de la ráfaga en curso
+    private volatile int burstRemaining = 0;  // Fotogramas que faltan por capturar en la ráfaga
+    private volatile ImageSequenceWriter timelapseWriter = null;  // Escritor del timelapse en curso
+    private volatile long timelapseIntervalNanos = 0;  // Intervalo entre fotogramas del timelapse
+    private JSpinner burstCountSpinner;  // Número de fotogramas de cada ráfaga
+    private JSpinner intervalSpinner;  // Segundos entre fotogramas del timelapse
 
     /**
      * Constructor de la clase WebcamCaptureApp.
@@ -43,7 +57,8 @@ public class WebcamCaptureApp extends JFrame {
     public WebcamCaptureApp() {
         setTitle("Captura d'Imatges de la Webcam");
         setSize(640, 480);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        lifecycle.bindTo(this);  // Al cerrar se detiene la captura, se termina la grabación y se libera la cámara
         setLocationRelativeTo(null);
 
         // Crear un JLabel para mostrar la imagen capturada
@@ -53,7 +68,30 @@ public class WebcamCaptureApp extends JFrame {
         // Crear un botón para capturar la imagen
         JButton captureButton = new JButton("Capturar");
         captureButton.addActionListener(e -> captureImage());
-        add(captureButton, BorderLayout.SOUTH);
+
+        // Crear un botón para grabar el vídeo sin procesar
+        JButton recordButton = new JButton("Gravar");
+        recordButton.addActionListener(e -> toggleRecording(recordButton));
+
+        // Ráfaga: N fotogramas seguidos a la velocidad de la cámara
+        burstCountSpinner = new JSpinner(new SpinnerNumberModel(30, 1, 1000, 1));
+        JButton burstButton = new JButton("Ràfega");
+        burstButton.addActionListener(e -> startBurst());
+
+        // Timelapse: un fotograma cada T segundos hasta que se detiene
+        intervalSpinner = new JSpinner(new SpinnerNumberModel(5, 1, 3600, 1));
+        JButton timelapseButton = new JButton("Timelapse");
+        timelapseButton.addActionListener(e -> toggleTimelapse(timelapseButton));
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        buttonPanel.add(captureButton);
+        buttonPanel.add(recordButton);
+        buttonPanel.add(burstCountSpinner);
+        buttonPanel.add(burstButton);
+        buttonPanel.add(intervalSpinner);
+        buttonPanel.add(new JLabel("s"));
+        buttonPanel.add(timelapseButton);
+        add(buttonPanel, BorderLayout.SOUTH);
     }
 
     /**
@@ -72,6 +110,104 @@ public class WebcamCaptureApp extends JFrame {
         }
     }
 
+    /**
+     * Crea un escritor de secuencias en una carpeta nueva dentro de 'images'.
+     *
+     * @param prefix Prefijo de la carpeta y de los archivos.
+     * @return El escritor.
+     */
+    private ImageSequenceWriter newSequenceWriter(String prefix) {
+        String stamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        // Varios hilos de escritura: a 30 fps en 1080p un solo imwrite no da abasto
+        return new ImageSequenceWriter(new File("images/" + prefix + "_" + stamp), prefix,
+                ImageFiles.Format.JPEG, 90, Math.max(2, Runtime.getRuntime().availableProcessors() / 2), 16);
+    }
+
+    /**
+     * Empieza una ráfaga con el número de fotogramas indicado.
+     */
+    private void startBurst() {
+        if (burstRemaining > 0) {
+            return;  // Ya hay una ráfaga en curso
+        }
+        burstWriter = newSequenceWriter("rafega");
+        burstRemaining = (Integer) burstCountSpinner.getValue();
+    }
+
+    /**
+     * Inicia o detiene el timelapse.
+     *
+     * @param button El botón del timelapse, para actualizar su texto.
+     */
+    private void toggleTimelapse(JButton button) {
+        if (timelapseWriter == null) {
+            timelapseIntervalNanos = TimeUnit.SECONDS.toNanos((Integer) intervalSpinner.getValue());
+            timelapseWriter = newSequenceWriter("timelapse");
+            button.setText("Aturar Timelapse");
+        } else {
+            ImageSequenceWriter current = timelapseWriter;
+            timelapseWriter = null;
+            finishSequence(current);
+            button.setText("Timelapse");
+        }
+    }
+
+    /**
+     * Espera en segundo plano a que se escriban las imágenes pendientes y
+     * muestra el resultado.
+     *
+     * @param writer El escritor a cerrar.
+     */
+    private void finishSequence(ImageSequenceWriter writer) {
+        new Thread(() -> {
+            try {
+                writer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, writer.toString()));
+        }).start();
+    }
+
+    /**
+     * Inicia o detiene la grabación de vídeo.
+     *
+     * <p> Los fotogramas se codifican en un hilo aparte ({@link VideoRecorder}),
+     * así que grabar no ralentiza la previsualización. </p>
+     *
+     * @param button El botón de grabación, para actualizar su texto.
+     */
+    private void toggleRecording(JButton button) {
+        if (recorder == null) {
+            VideoRecorder started = VideoRecorder.fromPreferences(new File("videos"), "webcam");
+            // Si la escritura falla, el grabador se detiene solo: se vuelve al estado inicial y se avisa
+            started.setErrorListener(message -> {
+                if (recorder != started) {
+                    return;  // Ya se había detenido desde el botón
+                }
+                recorder = null;
+                button.setEnabled(false);
+                started.stopInBackground(() -> {
+                    button.setEnabled(true);
+                    button.setText("Gravar");
+                    JOptionPane.showMessageDialog(this, "Error gravant el vídeo: " + message,
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            });
+            recorder = started;
+            button.setText("Aturar Gravació");
+        } else {
+            VideoRecorder current = recorder;
+            recorder = null;
+            button.setEnabled(false);  // Hasta que se escriban los fotogramas pendientes
+            current.stopInBackground(() -> {
+                button.setEnabled(true);
+                button.setText("Gravar");
+                JOptionPane.showMessageDialog(this, "Gravació aturada: " + current);
+            });
+        }
+    }
+
     /**
      * Inicia la captura de video desde la cámara.
      * 
@@ -80,9 +216,32 @@ public class WebcamCaptureApp extends JFrame {
      */
     public void start() {
         // Cargar la librería de OpenCV
-        System.load(getOpenCVPath());
-        capture = new VideoCapture(0);  // Inicia la captura de video
-        frame = new Mat();
+        NativeLoader.load();
+        capture = lifecycle.camera(ResourceWarmup.takeCamera());  // Inicia la captura de video (o usa la ya abierta)
+        frame = lifecycle.mat(new Mat());
+        lifecycle.onClose(() -> {
+            VideoRecorder current = recorder;
+            recorder = null;
+            if (current != null) {
+                current.stopInBackground(() -> { });  // Termina el segmento en curso sin esperarlo
+            }
+        });
+        lifecycle.onClose(() -> {
+            // Las secuencias en curso escriben las imágenes pendientes antes de cerrarse
+            try {
+                ImageSequenceWriter timelapse = timelapseWriter;
+                timelapseWriter = null;
+                if (timelapse != null) {
+                    timelapse.close();
+                }
+                if (burstRemaining > 0 && burstWriter != null) {
+                    burstRemaining = 0;
+                    burstWriter.close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
 
         // Verificar si la cámara está disponible
         if (!capture.isOpened()) {
@@ -90,18 +249,36 @@ public class WebcamCaptureApp extends JFrame {
             return;
         }
 
-        capturing = true;
-        new Thread(() -> {
-            while (capturing) {
+        lifecycle.start("captura", () -> {
+            long nextTimelapse = 0;
+            while (lifecycle.awaitRunning()) {
                 capture.read(frame);  // Capturar el cuadro actual
                 if (!frame.empty()) {
+                    // Ráfaga: solo se copia el fotograma, la escritura va en el pool de E/S.
+                    // Si el escritor lo descarta (disco lento) no cuenta, así la ráfaga tiene siempre N imágenes
+                    if (burstRemaining > 0 && burstWriter.submit(frame)) {
+                        if (--burstRemaining == 0) {
+                            finishSequence(burstWriter);
+                        }
+                    }
+                    ImageSequenceWriter currentTimelapse = timelapseWriter;
+                    if (currentTimelapse != null && System.nanoTime() >= nextTimelapse) {
+                        currentTimelapse.submit(frame);
+                        nextTimelapse = System.nanoTime() + timelapseIntervalNanos;
+                    }
+                    VideoRecorder currentRecorder = recorder;
+                    if (currentRecorder != null) {
+                        currentRecorder.offer(frame);
+                    }
                     BufferedImage img = matToBufferedImage(frame);  // Convertir el Mat a BufferedImage
                     ImageIcon icon = new ImageIcon(img);  // Crear un icono para mostrar la imagen
                     imageLabel.setIcon(icon);  // Actualizar la etiqueta con la nueva imagen
                     imageLabel.repaint();  // Redibujar la etiqueta
+                } else {
+                    Thread.sleep(10);  // Sin fotograma: se espera un poco en lugar de girar en vacío
                 }
             }
-        }).start();
+        });
     }
 
     /**
@@ -112,10 +289,11 @@ public class WebcamCaptureApp extends JFrame {
      * @param mat El objeto Mat que contiene la imagen de OpenCV.
      * @return Un objeto BufferedImage equivalente a la imagen contenida en el Mat.
      */
-    private BufferedImage matToBufferedImage(Mat mat) {
+    static BufferedImage matToBufferedImage(Mat mat) {
         MatOfByte matOfByte = new MatOfByte();
         Imgcodecs.imencode(".jpg", mat, matOfByte);  // Codificar la imagen a formato JPEG
         byte[] byteArray = matOfByte.toArray();  // Convertir a array de bytes
+        matOfByte.release();  // Liberar el buffer nativo del JPEG
         BufferedImage img = null;
         try {
             // Convertir el array de bytes a BufferedImage
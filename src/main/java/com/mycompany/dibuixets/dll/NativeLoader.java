@@ -0,0 +1,137 @@
+package com.mycompany.dibuixets.dll;
+
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.opencv_java;
+import org.opencv.core.Core;
+
+/**
+ * Carrega la llibreria nativa d'OpenCV una sola vegada per procés.
+ * <p>
+ * Qualsevol classe que faci servir OpenCV pot cridar {@link #load()} tantes
+ * vegades com vulgui: només la primera crida busca la llibreria; les següents
+ * tornen immediatament. La llibreria es busca, per ordre:
+ * </p>
+ * <ol>
+ * <li>a la propietat del sistema {@code opencv.path};</li>
+ * <li>a la clau {@code opencv} de data/preferencias.txt, si el fitxer existeix;</li>
+ * <li>al {@code java.library.path}, amb el nom {@value #LIBRARY_NAME};</li>
+ * <li>als binaris que porta el jar d'OpenCV de bytedeco ({@link Loader}), si
+ * hi ha el de la plataforma al classpath;</li>
+ * <li>i, si no funciona res i hi ha pantalla, es demana a l'usuari.</li>
+ * </ol>
+ *
+ * <p>
+ * En mode headless (sense pantalla, o amb la propietat del sistema
+ * {@code dibuixets.headless}) no s'obre mai cap diàleg: si no es troba la
+ * llibreria es llança l'error directament, de manera que els serveis i les
+ * eines de línia de comandes funcionen en un servidor.</p>
+ *
+ * @author Raül, Miquel Angel, Alejandro, Magi
+ */
+public final class NativeLoader {
+
+    private static final Logger LOG = Logger.getLogger(NativeLoader.class.getName());
+    // No es pot fer servir Core.NATIVE_LIBRARY_NAME: inicialitzar Core abans de carregar la llibreria falla
+    private static final String LIBRARY_NAME = "opencv_java490";
+
+    private static volatile String source; // D'on s'ha carregat, o null si encara no
+
+    private NativeLoader() {
+    }
+
+    /**
+     * Carrega OpenCV si encara no s'ha carregat.
+     *
+     * @throws UnsatisfiedLinkError Si no es troba la llibreria per cap via.
+     */
+    public static void load() {
+        if (source == null) {
+            resolve();
+        }
+    }
+
+    /**
+     * @return {@code true} si OpenCV ja està carregat.
+     */
+    public static boolean isLoaded() {
+        return source != null;
+    }
+
+    /**
+     * @return D'on s'ha carregat la llibreria (ruta, {@code java.library.path}
+     * o {@code bytedeco}), o {@code null} si encara no s'ha carregat.
+     */
+    public static String getSource() {
+        return source;
+    }
+
+    /**
+     * @return {@code true} si no es poden mostrar diàlegs.
+     */
+    public static boolean isHeadless() {
+        return GraphicsEnvironment.isHeadless() || Boolean.getBoolean("dibuixets.headless");
+    }
+
+    private static synchronized void resolve() {
+        if (source != null) {
+            return; // Un altre fil l'ha carregada mentre esperàvem
+        }
+        long start = System.nanoTime();
+        String loaded = loadFile(System.getProperty("opencv.path"));
+        if (loaded == null) {
+            loaded = loadFile(Preferences.get("opencv", null));
+        }
+        if (loaded == null) {
+            loaded = loadFromLibraryPath();
+        }
+        if (loaded == null) {
+            loaded = loadFromBytedeco();
+        }
+        if (loaded == null && !isHeadless()) {
+            loaded = loadFile(Preferences.askOpenCVPath());
+        }
+        if (loaded == null) {
+            throw new UnsatisfiedLinkError("No s'ha trobat la llibreria d'OpenCV: configura la clau opencv de "
+                    + "data/preferencias.txt o la propietat opencv.path");
+        }
+        source = loaded;
+        LOG.log(Level.INFO, "OpenCV {0} carregat des de {1} en {2} ms",
+                new Object[]{Core.VERSION, loaded, (System.nanoTime() - start) / 1_000_000});
+    }
+
+    private static String loadFile(String path) {
+        if (path == null || path.isEmpty() || !new File(path).isFile()) {
+            return null;
+        }
+        try {
+            System.load(path);
+            return path;
+        } catch (UnsatisfiedLinkError e) {
+            LOG.log(Level.WARNING, "No s''ha pogut carregar {0}: {1}", new Object[]{path, e.getMessage()});
+            return null;
+        }
+    }
+
+    private static String loadFromLibraryPath() {
+        try {
+            System.loadLibrary(LIBRARY_NAME);
+            return "java.library.path";
+        } catch (UnsatisfiedLinkError e) {
+            return null;
+        }
+    }
+
+    private static String loadFromBytedeco() {
+        try {
+            Loader.load(opencv_java.class);
+            return "bytedeco";
+        } catch (UnsatisfiedLinkError | RuntimeException e) {
+            // No hi ha el jar de la plataforma actual al classpath
+            return null;
+        }
+    }
+}
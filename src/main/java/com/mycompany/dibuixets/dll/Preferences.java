@@ -2,46 +2,140 @@ package com.mycompany.dibuixets.dll;
 
 import javax.swing.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Preferences {
+
+    private static final File PREFERENCES_FILE = new File("data/preferencias.txt");
+
+    // Contingut llegit del fitxer; només es torna a llegir si el fitxer canvia
+    private static Map<String, String> cache = Collections.emptyMap();
+    private static long cacheModified = -1;
+    private static long cacheLength = -1;
+
+    /**
+     * Retorna la ruta de la llibreria d'OpenCV. Si no està configurada o el
+     * fitxer no existeix, la demana a l'usuari.
+     * <p>
+     * Per carregar OpenCV s'ha de fer servir {@link NativeLoader#load()}, que
+     * només resol la ruta una vegada i no obre cap diàleg en mode headless.</p>
+     *
+     * @return La ruta de la llibreria, o {@code null} si l'usuari cancel·la.
+     */
     public static String getOpenCVPath() {
+        String path = get("opencv", null);
+        if (path != null && new File(path).isFile()) {
+            return path;
+        }
+        return askOpenCVPath();
+    }
+
+    /**
+     * Demana a l'usuari on és la llibreria d'OpenCV i la desa a les preferències.
+     *
+     * @return La ruta triada, o {@code null} si l'usuari cancel·la.
+     */
+    public static String askOpenCVPath() {
         File preferenciasFolder = new File("data");
         if (!preferenciasFolder.exists()) {
             preferenciasFolder.mkdir();
         }
-        File preferenciasFile = new File("data/preferencias.txt");
-        HashMap<String, String> preferencias = new HashMap<>();
+        return getNewRoute();
+    }
 
-        if (preferenciasFile.exists()) {
-            try (BufferedReader br = new BufferedReader(new FileReader(preferenciasFile))) {
-                while (br.ready()) {
-                    String line = br.readLine();
-                    String[] parts = line.split(",");
-                    if (parts.length == 2) {
-                        preferencias.put(parts[0], parts[1]);
+    /**
+     * Retorna el valor d'una preferència de data/preferencias.txt.
+     *
+     * @param key Nom de la preferència.
+     * @param defaultValue Valor que es retorna si no està definida.
+     * @return El valor de la preferència (l'última línia amb aquesta clau).
+     */
+    public static String get(String key, String defaultValue) {
+        return snapshot().getOrDefault(key, defaultValue);
+    }
+
+    /**
+     * Desa una preferència substituint les línies anteriors amb la mateixa
+     * clau, en lloc d'afegir-ne una de nova al final.
+     *
+     * @param key Nom de la preferència.
+     * @param value Valor nou.
+     */
+    public static synchronized void set(String key, String value) {
+        List<String> lines = new ArrayList<>();
+        try {
+            if (PREFERENCES_FILE.exists()) {
+                for (String line : Files.readAllLines(PREFERENCES_FILE.toPath(), StandardCharsets.UTF_8)) {
+                    String[] parts = line.split(",", 2);
+                    if (!(parts.length == 2 && parts[0].trim().equals(key))) {
+                        lines.add(line);
                     }
                 }
-                if (preferencias.containsKey("opencv") && ((preferencias.get("opencv").endsWith("opencv_java490.dll"))||(preferencias.get("opencv").endsWith("libopencv_java460.so")))) {
-                    try {
-                        File file = new File(preferencias.get("opencv"));
-                        return preferencias.get("opencv");
-                    }
-                    catch (Exception e){
-                        getNewRoute(preferenciasFile);
+            } else {
+                PREFERENCES_FILE.getParentFile().mkdirs();
+            }
+            lines.add(key + "," + value);
+            Files.write(PREFERENCES_FILE.toPath(), lines, StandardCharsets.UTF_8);
+            cacheModified = -1; // La data del fitxer pot no haver canviat dins del mateix segon
+        } catch (IOException ex) {
+            Logger.getLogger(Preferences.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Retorna el contingut del fitxer de preferències. Només es torna a llegir
+     * si ha canviat la data de modificació o la mida.
+     */
+    private static synchronized Map<String, String> snapshot() {
+        long modified = PREFERENCES_FILE.lastModified(); // 0 si no existeix
+        long length = PREFERENCES_FILE.length();
+        if (modified == cacheModified && length == cacheLength) {
+            return cache;
+        }
+        Map<String, String> values = new HashMap<>();
+        if (PREFERENCES_FILE.exists()) {
+            try (BufferedReader br = Files.newBufferedReader(PREFERENCES_FILE.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] parts = line.split(",", 2);
+                    if (parts.length == 2) {
+                        values.put(parts[0].trim(), parts[1].trim()); // L'última línia guanya
                     }
                 }
-            } catch (Exception ex) {
+            } catch (IOException ex) {
                 Logger.getLogger(Preferences.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
-        
-        return getNewRoute(preferenciasFile);
+        cache = Collections.unmodifiableMap(values);
+        cacheModified = modified;
+        cacheLength = length;
+        return cache;
     }
-    
-    private static String getNewRoute(File preferenciasFile){
+
+    /**
+     * Retorna una preferència numèrica.
+     *
+     * @param key Nom de la preferència.
+     * @param defaultValue Valor que es retorna si no està definida o no és un número.
+     * @return El valor de la preferència.
+     */
+    public static double getDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    private static String getNewRoute(){
         JDialog dialog = new JDialog();
         dialog.setAlwaysOnTop(true);
         JOptionPane.showMessageDialog(dialog, "No se ha encontrado la ruta de OpenCV o no es valida. Por favor, seleccione la carpeta de OpenCV.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -56,13 +150,8 @@ public class Preferences {
             File selectedFile = fileChooser.getSelectedFile();
             String opencvPath = selectedFile.getAbsolutePath();
             
-            // Guardar la nueva preferencia en el archivo
-            try (BufferedWriter bw = new BufferedWriter(new FileWriter(preferenciasFile, true))) {
-                bw.write("opencv," + opencvPath);
-                bw.newLine();
-            } catch (IOException ex) {
-                Logger.getLogger(Preferences.class.getName()).log(Level.SEVERE, null, ex);
-            }
+            // Guardar la nueva preferencia en el archivo, sustituyendo la anterior
+            set("opencv", opencvPath);
             
             return opencvPath;
         }